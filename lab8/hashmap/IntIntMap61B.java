@@ -0,0 +1,45 @@
+package hashmap;
+
+/**
+ * 键和值都是 int 的 {@link Map61B}，get 和 put 不装箱
+ * <p>
+ * 每个映射有一个 "缺失值"，get 和 remove 在键不存在时返回它，
+ * 值可能等于缺失值时用 containsKey 区分
+ *
+ * @author Kai Decker
+ */
+public interface IntIntMap61B {
+    /** Removes all of the mappings from this map. */
+    void clear();
+
+    /** Returns true if this map contains a mapping for the specified key. */
+    boolean containsKey(int key);
+
+    /**
+     * Returns the value to which the specified key is mapped, or the missing
+     * value of this map if it contains no mapping for the key.
+     */
+    int get(int key);
+
+    /** Returns the number of key-value mappings in this map. */
+    int size();
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key,
+     * the old value is replaced.
+     */
+    void put(int key, int value);
+
+    /** Returns the keys contained in this map, in no particular order. */
+    int[] keys();
+
+    /**
+     * Removes the mapping for the specified key from this map if present.
+     * Returns the removed value, or the missing value if there was none.
+     */
+    int remove(int key);
+
+    /** Returns a boxed view of this map, backed by it. */
+    Map61B<Integer, Integer> boxed();
+}
@@ -0,0 +1,48 @@
+package hashmap;
+
+/**
+ * 键是 long 的 {@link Map61B}，get 和 put 不装箱
+ *
+ * @author Kai Decker
+ */
+public interface LongObjMap61B<V> {
+    /** Removes all of the mappings from this map. */
+    void clear();
+
+    /** Returns true if this map contains a mapping for the specified key. */
+    boolean containsKey(long key);
+
+    /**
+     * Returns the value to which the specified key is mapped, or null if this
+     * map contains no mapping for the key.
+     */
+    V get(long key);
+
+    /** Returns the number of key-value mappings in this map. */
+    int size();
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key,
+     * the old value is replaced.
+     */
+    void put(long key, V value);
+
+    /** Returns the keys contained in this map, in no particular order. */
+    long[] keys();
+
+    /**
+     * Removes the mapping for the specified key from this map if present.
+     * Returns the removed value, or null if there was none.
+     */
+    V remove(long key);
+
+    /**
+     * Removes the entry for the specified key only if it is currently mapped to
+     * the specified value.
+     */
+    V remove(long key, V value);
+
+    /** Returns a boxed view of this map, backed by it. */
+    Map61B<Long, V> boxed();
+}
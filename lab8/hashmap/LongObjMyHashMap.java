@@ -0,0 +1,369 @@
+package hashmap;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 键是 long 的开放寻址哈希映射，结构与 {@link MyHashMapProbing} 相同
+ * <p>
+ * 键存放在 long 数组中，值存放在平行的引用数组中，0 表示空位，键 0 单独保存在两个字段里。
+ * get、put 和 remove 不装箱，不扩容时不分配任何对象
+ * <p>
+ * 需要 {@link Map61B} 的地方使用 {@link #boxed()} 得到的视图
+ *
+ * @author Kai Decker
+ */
+
+public class LongObjMyHashMap<V> implements LongObjMap61B<V> {
+
+    /* 默认的容量和负载因子 */
+    private static final int DEFAULT_SIZE = 16;
+    private static final double DEFAULT_LOAD = 0.75;
+    /* 数组长度的上限 */
+    private static final int MAX_SIZE = 1 << 30;
+
+    /* 负载因子阈值 */
+    private final double loadFactor;
+    /* 数组中存了多少个键值对，不包括键 0 */
+    private int used;
+    /* used 超过这个值时扩容 */
+    private int threshold;
+    /* 哈希值右移的位数，数组长度为 2 的 (64 - shift) 次方 */
+    private int shift;
+    /* 键和值的数组，空位的键为 0 */
+    private long[] keys;
+    private V[] values;
+    /* 键 0 是否存在以及它的值 */
+    private boolean hasZeroKey;
+    private V zeroValue;
+
+    /* 构造方法 */
+    public LongObjMyHashMap() {
+        this(DEFAULT_SIZE, DEFAULT_LOAD);
+    }
+
+    /**
+     * 可允许自定义初始容量
+     *
+     * @param initialSize 数组初始大小
+     */
+    public LongObjMyHashMap(int initialSize) {
+        this(initialSize, DEFAULT_LOAD);
+    }
+
+    /**
+     * 可自定义初始容量和最大负载因子
+     *
+     * @param initialSize 数组初始大小，会向上取整到 2 的幂
+     * @param maxLoad 最大负载因子，必须小于 1
+     */
+    public LongObjMyHashMap(int initialSize, double maxLoad) {
+        if (maxLoad <= 0 || maxLoad >= 1) {
+            throw new IllegalArgumentException("maxLoad must be in (0, 1): " + maxLoad);
+        }
+        loadFactor = maxLoad;
+        createTable(tableSizeFor(initialSize));
+    }
+
+    /**
+     * 分配长度为 TABLESIZE 的空数组
+     *
+     * @param tableSize 2 的幂
+     */
+    @SuppressWarnings("unchecked")
+    private void createTable(int tableSize) {
+        keys = new long[tableSize];
+        values = (V[]) new Object[tableSize];
+        shift = Long.numberOfLeadingZeros(tableSize) + 1;
+        threshold = (int) Math.min(tableSize * loadFactor, tableSize - 1);
+        used = 0;
+    }
+
+    /**
+     * @return 不小于 N 的 2 的幂，至少为 2
+     */
+    private static int tableSizeFor(int n) {
+        if (n >= MAX_SIZE) {
+            return MAX_SIZE;
+        }
+        return Math.max(2, Integer.highestOneBit(Math.max(n - 1, 1)) << 1);
+    }
+
+    /**
+     * 清空的方法
+     * 保留当前的数组，只把它们填为空，不分配新的数组
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        used = 0;
+        hasZeroKey = false;
+        zeroValue = null;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : find(key) >= 0;
+    }
+
+    /**
+     * 获取值的方法
+     *
+     * @param key 给定的键
+     * @return 对应的值，若找不到或该键没存放，则返回 null
+     */
+    @Override
+    public V get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        int mask = keys.length - 1;
+        int i = getPosition(key);
+        for (long k = keys[i]; k != 0; k = keys[i]) {
+            if (k == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return hasZeroKey ? used + 1 : used;
+    }
+
+    /**
+     * 将指定键与指定值在此映射中关联
+     * 如果该映射之前已包含该键的关系，
+     * 则旧的值将被替换。
+     *
+     * @param key 给定的键
+     * @param value 给定的值
+     */
+    @Override
+    public void put(long key, V value) {
+        if (key == 0) {
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+        int mask = keys.length - 1;
+        int i = getPosition(key);
+        for (long k = keys[i]; k != 0; k = keys[i]) {
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        used++;
+        if (used > threshold) {
+            reSize();
+        }
+    }
+
+    @Override
+    public long[] keys() {
+        long[] ret = new long[size()];
+        int n = 0;
+        if (hasZeroKey) {
+            ret[n++] = 0;
+        }
+        for (long k : keys) {
+            if (k != 0) {
+                ret[n++] = k;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 如果存在指定键的映射关系，则从此映射中移除该映射
+     *
+     * @param key 给定的键
+     * @return 被移除的值，不存在时返回 null
+     */
+    @Override
+    public V remove(long key) {
+        if (key == 0) {
+            V ret = zeroValue;
+            hasZeroKey = false;
+            zeroValue = null;
+            return ret;
+        }
+        int i = find(key);
+        if (i < 0) {
+            return null;
+        }
+        V ret = values[i];
+        removeAt(i);
+        return ret;
+    }
+
+    /**
+     * 仅当指定键当前映射到指定值时，才移除该键的条目
+     *
+     * @param key 给定的键
+     * @param value 给定的值
+     * @return 被移除的值，没有移除时返回 null
+     */
+    @Override
+    public V remove(long key, V value) {
+        if (!containsKey(key) || !Objects.equals(get(key), value)) {
+            return null;
+        }
+        remove(key);
+        return value;
+    }
+
+    @Override
+    public Map61B<Long, V> boxed() {
+        return new Boxed();
+    }
+
+    /**
+     * 查找不为 0 的键所在的下标
+     *
+     * @param key 给定的键
+     * @return 键的下标，不存在时返回 -1
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int i = getPosition(key);
+        for (long k = keys[i]; k != 0; k = keys[i]) {
+            if (k == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 移除下标 I 处的键值对，之后同一条探测链上的键向前移动填补空位
+     * 见 {@link MyHashMapProbing}
+     */
+    private void removeAt(int i) {
+        int mask = keys.length - 1;
+        int hole = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long k = keys[j];
+            if (k == 0) {
+                break;
+            }
+            /* 空位在 [初始位置, j) 中时，k 移动到空位后仍然能被找到 */
+            int home = getPosition(k);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = k;
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = 0;
+        values[hole] = null;
+        used--;
+    }
+
+    /**
+     * 扩容的方法
+     * 数组长度加倍，所有键重新放入新数组
+     */
+    private void reSize() {
+        if (keys.length >= MAX_SIZE) {
+            /* 至少保留一个空位，否则查找不存在的键时探测不会结束 */
+            if (used >= keys.length - 1) {
+                throw new IllegalStateException("LongObjMyHashMap is full");
+            }
+            threshold = keys.length - 2;
+            return;
+        }
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        int n = used;
+        createTable(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k != 0) {
+                int i = getPosition(k);
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+        used = n;
+    }
+
+    /**
+     * 乘以黄金分割数后取高位作为键的初始位置
+     */
+    private int getPosition(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /* 装箱的视图，用于需要 Map61B 的代码 */
+    private class Boxed implements Map61B<Long, V> {
+        @Override
+        public void clear() {
+            LongObjMyHashMap.this.clear();
+        }
+
+        @Override
+        public boolean containsKey(Long key) {
+            return key != null && LongObjMyHashMap.this.containsKey(key);
+        }
+
+        @Override
+        public V get(Long key) {
+            return key == null ? null : LongObjMyHashMap.this.get(key);
+        }
+
+        @Override
+        public int size() {
+            return LongObjMyHashMap.this.size();
+        }
+
+        @Override
+        public void put(Long key, V value) {
+            if (key == null) {
+                throw new IllegalArgumentException("null key");
+            }
+            LongObjMyHashMap.this.put(key, value);
+        }
+
+        @Override
+        public Set<Long> keySet() {
+            Set<Long> ret = new HashSet<>();
+            for (long k : keys()) {
+                ret.add(k);
+            }
+            return ret;
+        }
+
+        @Override
+        public V remove(Long key) {
+            return key == null ? null : LongObjMyHashMap.this.remove(key);
+        }
+
+        @Override
+        public V remove(Long key, V value) {
+            return key == null ? null : LongObjMyHashMap.this.remove(key, value);
+        }
+
+        @Override
+        public Iterator<Long> iterator() {
+            return Arrays.stream(keys()).iterator();
+        }
+    }
+}
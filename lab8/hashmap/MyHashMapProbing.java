@@ -0,0 +1,350 @@
+package hashmap;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 使用开放寻址（线性探测）实现的哈希映射
+ * <p>
+ * 键和值分别存放在两个平行的数组中，同一个下标是一对键值，
+ * 不为每个键值对创建 Node，也不为每个桶创建 Collection，
+ * 所以占用的内存只有两个引用数组，查找时沿着数组顺序访问
+ * <p>
+ * 删除时不留下墓碑，而是把后面同一条探测链上的键往前移动填补空位，
+ * 所以删除之后的查找和删除之前一样快
+ * <p>
+ * 假定永远不会插入为 null 的键
+ *
+ * @author Kai Decker
+ */
+
+public class MyHashMapProbing<K, V> implements Map61B<K, V> {
+
+    /* 默认的容量和负载因子 */
+    private static final int DEFAULT_SIZE = 16;
+    private static final double DEFAULT_LOAD = 0.75;
+    /* 数组长度的上限 */
+    private static final int MAX_SIZE = 1 << 30;
+
+    /* 负载因子阈值 */
+    private final double loadFactor;
+    /* 当前存了多少个键值对 */
+    private int length;
+    /* 键值对个数超过这个值时扩容 */
+    private int threshold;
+    /* 哈希值右移的位数，数组长度为 2 的 (32 - shift) 次方 */
+    private int shift;
+    /* 键和值的数组，空位的键为 null */
+    private K[] keys;
+    private V[] values;
+
+    /* 构造方法 */
+    public MyHashMapProbing() {
+        this(DEFAULT_SIZE, DEFAULT_LOAD);
+    }
+
+    /**
+     * 可允许自定义初始容量
+     *
+     * @param initialSize 数组初始大小
+     */
+    public MyHashMapProbing(int initialSize) {
+        this(initialSize, DEFAULT_LOAD);
+    }
+
+    /**
+     * 可自定义初始容量和最大负载因子
+     * 负载因子为(元素数量 / 数组长度)，必须小于 1
+     *
+     * @param initialSize 数组初始大小，会向上取整到 2 的幂
+     * @param maxLoad 最大负载因子
+     */
+    public MyHashMapProbing(int initialSize, double maxLoad) {
+        if (maxLoad <= 0 || maxLoad >= 1) {
+            throw new IllegalArgumentException("maxLoad must be in (0, 1): " + maxLoad);
+        }
+        loadFactor = maxLoad;
+        createTable(tableSizeFor(initialSize));
+    }
+
+    /**
+     * 分配长度为 TABLESIZE 的空数组
+     *
+     * @param tableSize 2 的幂
+     */
+    @SuppressWarnings("unchecked")
+    private void createTable(int tableSize) {
+        keys = (K[]) new Object[tableSize];
+        values = (V[]) new Object[tableSize];
+        shift = Integer.numberOfLeadingZeros(tableSize) + 1;
+        threshold = (int) Math.min(tableSize * loadFactor, tableSize - 1);
+        length = 0;
+    }
+
+    /**
+     * @return 不小于 N 的 2 的幂，至少为 2
+     */
+    private static int tableSizeFor(int n) {
+        if (n >= MAX_SIZE) {
+            return MAX_SIZE;
+        }
+        return Math.max(2, Integer.highestOneBit(Math.max(n - 1, 1)) << 1);
+    }
+
+    /**
+     * 清空的方法
+     * 重新分配长度为 16 的数组
+     */
+    @Override
+    public void clear() {
+        createTable(DEFAULT_SIZE);
+    }
+
+    /**
+     * 检查给定的键是否存在
+     *
+     * @param key 给定的键
+     */
+    @Override
+    public boolean containsKey(K key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * 获取值的方法
+     *
+     * @param key 给定的键
+     * @return 对应的值，若找不到或该键没存放，则返回 null
+     */
+    @Override
+    public V get(K key) {
+        int i = find(key);
+        return i < 0 ? null : values[i];
+    }
+
+    /**
+     * 获取大小的方法
+     *
+     * @return 当前映射中键值对的数量，即 length
+     */
+    @Override
+    public int size() {
+        return length;
+    }
+
+    /**
+     * 将指定键与指定值在此映射中关联
+     * 如果该映射之前已包含该键的关系，
+     * 则旧的值将被替换。
+     *
+     * @param key 给定的键
+     * @param value 给定的值
+     */
+    @Override
+    public void put(K key, V value) {
+        if (key == null) {
+            throw new IllegalArgumentException("null key");
+        }
+        int mask = keys.length - 1;
+        int i = getPosition(key);
+        /* 沿探测链找到这个键或者第一个空位 */
+        for (K k = keys[i]; k != null; k = keys[i]) {
+            if (k == key || k.equals(key)) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        length++;
+        if (length > threshold) {
+            reSize();
+        }
+    }
+
+    /**
+     * 包含映射中所有的键的集合获取方法
+     *
+     * @return 包含键的集合
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> ret = new HashSet<>();
+        for (K k : this) {
+            ret.add(k);
+        }
+        return ret;
+    }
+
+    /**
+     * 如果存在指定键的映射关系，则从此映射中移除该映射
+     *
+     * @param key 给定的键
+     * @return 被移除的值，不存在时返回 null
+     */
+    @Override
+    public V remove(K key) {
+        int i = find(key);
+        if (i < 0) {
+            return null;
+        }
+        V ret = values[i];
+        removeAt(i);
+        return ret;
+    }
+
+    /**
+     * 仅当指定键当前映射到指定值时，才移除该键的条目
+     *
+     * @param key 给定的键
+     * @param value 给定的值
+     * @return 被移除的值，没有移除时返回 null
+     */
+    @Override
+    public V remove(K key, V value) {
+        int i = find(key);
+        if (i < 0 || !Objects.equals(values[i], value)) {
+            return null;
+        }
+        removeAt(i);
+        return value;
+    }
+
+    /**
+     * 返回一个按数组顺序遍历所有键的迭代器
+     *
+     * @return 迭代器对象
+     */
+    @Override
+    public Iterator<K> iterator() {
+        return new Iterator<>() {
+            private final K[] k = keys;
+            private int pos = findPos(0);
+
+            /**
+             * 从某个下标开始找下一个不为空的位置
+             *
+             * @param cur 给定的下标起点
+             * @return 下一个存有键的下标，没有时为数组长度
+             */
+            private int findPos(int cur) {
+                int p = cur;
+                while (p < k.length && k[p] == null) {
+                    p++;
+                }
+                return p;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return pos < k.length;
+            }
+
+            @Override
+            public K next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                K ret = k[pos];
+                pos = findPos(pos + 1);
+                return ret;
+            }
+        };
+    }
+
+    /**
+     * 查找键所在的下标
+     *
+     * @param key 给定的键
+     * @return 键的下标，不存在时返回 -1
+     */
+    private int find(K key) {
+        if (key == null) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int i = getPosition(key);
+        for (K k = keys[i]; k != null; k = keys[i]) {
+            if (k == key || k.equals(key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 移除下标 I 处的键值对
+     * 之后同一条探测链上的键，如果它的初始位置不在空位和它之间，
+     * 就移动到空位上，空位随之后移，直到遇到真正的空位
+     */
+    private void removeAt(int i) {
+        int mask = keys.length - 1;
+        int hole = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            K k = keys[j];
+            if (k == null) {
+                break;
+            }
+            /* 空位在 [初始位置, j) 中时，k 移动到空位后仍然能被找到 */
+            int home = getPosition(k);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = k;
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        length--;
+    }
+
+    /**
+     * 扩容的方法
+     * 数组长度加倍，所有键重新放入新数组；键都不相同，所以只需要找到空位
+     */
+    private void reSize() {
+        if (keys.length >= MAX_SIZE) {
+            /* 至少保留一个空位，否则查找不存在的键时探测不会结束 */
+            if (length >= keys.length - 1) {
+                throw new IllegalStateException("MyHashMapProbing is full");
+            }
+            threshold = keys.length - 2;
+            return;
+        }
+        K[] oldKeys = keys;
+        V[] oldValues = values;
+        int n = length;
+        createTable(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            K k = oldKeys[j];
+            if (k != null) {
+                int i = getPosition(k);
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+        length = n;
+    }
+
+    /**
+     * 通过计算得知给定的键的初始位置
+     * 乘以黄金分割数后取高位，使 hashCode 的低位相近的键也分散开
+     *
+     * @param key 给定的键
+     * @return 对应的下标
+     */
+    private int getPosition(K key) {
+        return (key.hashCode() * 0x9E3779B9) >>> shift;
+    }
+}
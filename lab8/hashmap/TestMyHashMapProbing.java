@@ -0,0 +1,86 @@
+package hashmap;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/** Tests of the open-addressing MyHashMapProbing. */
+public class TestMyHashMapProbing {
+
+    @Test
+    public void sanityTest() {
+        TestMyHashMap.sanityClearTest(new MyHashMapProbing<>());
+        TestMyHashMap.sanityContainsKeyTest(new MyHashMapProbing<>());
+        TestMyHashMap.sanityGetTest(new MyHashMapProbing<>());
+        TestMyHashMap.sanitySizeTest(new MyHashMapProbing<>());
+        TestMyHashMap.sanityPutTest(new MyHashMapProbing<>());
+        TestMyHashMap.sanityKeySetTest(new MyHashMapProbing<>());
+        TestMyHashMap.functionalityTest(new MyHashMapProbing<>(), new MyHashMapProbing<>());
+    }
+
+    @Test
+    public void testRemove() {
+        MyHashMapProbing<String, String> q = new MyHashMapProbing<>();
+        q.put("c", "a");
+        q.put("b", "a");
+        q.put("a", "a");
+        q.put("d", "a");
+        q.put("e", "a"); // a b c d e
+        assertEquals("a", q.remove("c"));
+        assertFalse(q.containsKey("c"));
+        assertTrue(q.containsKey("a"));
+        assertTrue(q.containsKey("b"));
+        assertTrue(q.containsKey("d"));
+        assertTrue(q.containsKey("e"));
+        assertEquals(4, q.size());
+        assertNull(q.remove("c"));
+        assertNull(q.remove("a", "b"));
+        assertEquals("a", q.remove("a", "a"));
+        assertEquals(3, q.size());
+    }
+
+    /** Keys with equal hash codes share one probe chain; removals must keep it intact. */
+    @Test
+    public void testRemoveCollisions() {
+        MyHashMapProbing<String, Integer> q = new MyHashMapProbing<>(4);
+        /* "Aa" and "BB" have the same hashCode */
+        String[] keys = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        for (int i = 0; i < keys.length; i++) {
+            q.put(keys[i], i);
+        }
+        q.remove("AaBB");
+        assertNull(q.get("AaBB"));
+        assertEquals(0, (int) q.get("AaAa"));
+        assertEquals(2, (int) q.get("BBAa"));
+        assertEquals(3, (int) q.get("BBBB"));
+        q.remove("AaAa");
+        assertEquals(2, (int) q.get("BBAa"));
+        assertEquals(3, (int) q.get("BBBB"));
+        assertEquals(2, q.size());
+    }
+
+    /** Random puts and removes agree with java.util.HashMap. */
+    @Test
+    public void randomizedTest() {
+        MyHashMapProbing<Integer, Integer> q = new MyHashMapProbing<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random r = new Random(61);
+        for (int i = 0; i < 200000; i++) {
+            int k = r.nextInt(5000);
+            if (r.nextInt(3) == 0) {
+                assertEquals(expected.remove(k), q.remove(k));
+            } else {
+                expected.put(k, i);
+                q.put(k, i);
+            }
+            assertEquals(expected.size(), q.size());
+        }
+        for (int k = 0; k < 5000; k++) {
+            assertEquals(expected.get(k), q.get(k));
+        }
+        assertEquals(expected.keySet(), q.keySet());
+    }
+}
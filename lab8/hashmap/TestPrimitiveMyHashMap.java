@@ -0,0 +1,103 @@
+package hashmap;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/** Tests of IntIntMyHashMap and LongObjMyHashMap. */
+public class TestPrimitiveMyHashMap {
+
+    @Test
+    public void intIntZeroKeyTest() {
+        IntIntMyHashMap q = new IntIntMyHashMap(16, 0.75, -1);
+        assertEquals(-1, q.get(0));
+        assertFalse(q.containsKey(0));
+        q.put(0, 5);
+        q.put(7, 0);
+        assertEquals(5, q.get(0));
+        assertEquals(0, q.get(7));
+        assertTrue(q.containsKey(7));
+        assertEquals(2, q.size());
+        assertEquals(5, q.remove(0));
+        assertEquals(-1, q.remove(0));
+        assertEquals(1, q.size());
+        q.clear();
+        assertEquals(0, q.size());
+        assertEquals(-1, q.get(7));
+    }
+
+    /** Random puts and removes agree with java.util.HashMap. */
+    @Test
+    public void intIntRandomizedTest() {
+        IntIntMyHashMap q = new IntIntMyHashMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random r = new Random(61);
+        for (int i = 0; i < 200000; i++) {
+            int k = r.nextInt(5000) - 2500;
+            if (r.nextInt(3) == 0) {
+                Integer v = expected.remove(k);
+                assertEquals(v == null ? 0 : v, q.remove(k));
+            } else {
+                expected.put(k, i);
+                q.put(k, i);
+            }
+            assertEquals(expected.size(), q.size());
+        }
+        for (int k = -2500; k < 2500; k++) {
+            assertEquals(expected.containsKey(k), q.containsKey(k));
+            assertEquals(expected.getOrDefault(k, 0), (Integer) q.get(k));
+        }
+        Set<Integer> keys = new HashSet<>();
+        Arrays.stream(q.keys()).forEach(keys::add);
+        assertEquals(expected.keySet(), keys);
+    }
+
+    @Test
+    public void longObjRandomizedTest() {
+        LongObjMyHashMap<String> q = new LongObjMyHashMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        Random r = new Random(61);
+        for (int i = 0; i < 200000; i++) {
+            long k = (r.nextInt(5000) - 2500) * 0x100000001L;
+            if (r.nextInt(3) == 0) {
+                assertEquals(expected.remove(k), q.remove(k));
+            } else {
+                expected.put(k, "v" + i);
+                q.put(k, "v" + i);
+            }
+            assertEquals(expected.size(), q.size());
+        }
+        for (long k : expected.keySet()) {
+            assertEquals(expected.get(k), q.get(k));
+        }
+        assertEquals(expected.keySet(), q.boxed().keySet());
+    }
+
+    @Test
+    public void boxedTest() {
+        Map61B<Integer, Integer> b = new IntIntMyHashMap().boxed();
+        assertNull(b.get(3));
+        assertNull(b.get(null));
+        b.put(3, 0);
+        assertEquals(0, (int) b.get(3));
+        assertNull(b.remove(3, 1));
+        assertEquals(0, (int) b.remove(3, 0));
+        assertEquals(0, b.size());
+
+        LongObjMyHashMap<String> q = new LongObjMyHashMap<>();
+        Map61B<Long, String> l = q.boxed();
+        l.put(0L, "zero");
+        l.put(1L << 40, "big");
+        assertEquals("zero", q.get(0));
+        assertEquals("big", q.get(1L << 40));
+        Set<Long> keys = new HashSet<>();
+        l.forEach(keys::add);
+        assertEquals(Set.of(0L, 1L << 40), keys);
+    }
+}
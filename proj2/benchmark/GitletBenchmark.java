@@ -0,0 +1,197 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static benchmark.RepoGenerator.fileName;
+import static benchmark.RepoGenerator.run;
+
+/**
+ * gitlet 各个命令的 JMH 性能测试
+ * 每个 fork 都会用 {@link RepoGenerator} 生成一个新的仓库
+ * <p>
+ * gitlet 的工作目录在类加载时就确定了，所以每个 fork 只能操作一个仓库，
+ * 不能使用 -f 0 在 JMH 的主进程中运行
+ * <p>
+ * 用法：mvn -f benchmark/pom.xml package && java -jar benchmark/target/benchmarks.jar
+ *
+ * @author Kai Decker
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GitletBenchmark {
+
+    /** 测试用的仓库，整个 fork 内共享 */
+    @State(Scope.Benchmark)
+    public static class Repo {
+        @Param({"100", "1000"})
+        public int files;
+
+        @Param({"50"})
+        public int commits;
+
+        @Param({"10"})
+        public int mergeEvery;
+
+        File dir;
+        private PrintStream stdout;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            File base = Files.createTempDirectory("gitlet-bench").toFile();
+            dir = new File(base, "local");
+            RepoGenerator.prepare(dir);
+            new RepoGenerator(files, commits, mergeEvery, 61L).generate(dir);
+
+            /* 远程仓库是本地仓库的完整副本，fetch 时会复制它的全部历史 */
+            File remote = new File(base, "remote");
+            RepoGenerator.copyRecursively(new File(dir, ".gitlet").toPath(),
+                    new File(remote, ".gitlet").toPath());
+            run("add-remote", "origin", new File(remote, ".gitlet").getAbsolutePath());
+
+            /* 分支 side 比 master 多一个提交，用于 checkout 来回切换 */
+            run("branch", "side");
+            run("checkout", "side");
+            write(0, "side");
+            run("add", fileName(0));
+            run("commit", "side change");
+            run("checkout", "master");
+
+            /* 屏蔽命令的输出，避免 log 等命令的打印影响测量 */
+            stdout = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.setOut(stdout);
+            RepoGenerator.deleteRecursively(dir.getParentFile().toPath());
+        }
+
+        /* 把第 I 个文件的内容改写为 CONTENT */
+        void write(int i, String content) {
+            try {
+                Files.writeString(new File(dir, fileName(i)).toPath(), content + "\n");
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        }
+    }
+
+    /** 每次调用前修改一个文件，但不暂存 */
+    @State(Scope.Thread)
+    public static class Modified {
+        private int n;
+
+        @Setup(Level.Invocation)
+        public void setUp(Repo repo) {
+            repo.write(1, "modified " + n++);
+        }
+    }
+
+    /** 每次调用前修改并暂存一个文件 */
+    @State(Scope.Thread)
+    public static class Staged {
+        private int n;
+
+        @Setup(Level.Invocation)
+        public void setUp(Repo repo) {
+            repo.write(1, "staged " + n++);
+            run("add", fileName(1));
+        }
+    }
+
+    /** 每次调用前在 master 和 side 之间切换检出目标 */
+    @State(Scope.Thread)
+    public static class Target {
+        String branch = "master";
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            branch = branch.equals("master") ? "side" : "master";
+        }
+    }
+
+    /** 每次调用前新建一个分支，并让它和 master 各自多出一个不冲突的提交 */
+    @State(Scope.Thread)
+    public static class Diverged {
+        String branch;
+        private int n;
+
+        @Setup(Level.Invocation)
+        public void setUp(Repo repo) {
+            branch = "merge" + n++;
+            run("branch", branch);
+            run("checkout", branch);
+            repo.write(2, branch);
+            run("add", fileName(2));
+            run("commit", "change on " + branch);
+            run("checkout", "master");
+            repo.write(3, branch);
+            run("add", fileName(3));
+            run("commit", "change on master before " + branch);
+        }
+    }
+
+    @Benchmark
+    public void add(Repo repo, Modified m) {
+        run("add", fileName(1));
+    }
+
+    @Benchmark
+    public void commit(Repo repo, Staged s) {
+        run("commit", "benchmark commit");
+    }
+
+    @Benchmark
+    public void status(Repo repo) {
+        run("status");
+    }
+
+    @Benchmark
+    public void log(Repo repo) {
+        run("log");
+    }
+
+    @Benchmark
+    public void globalLog(Repo repo) {
+        run("global-log");
+    }
+
+    @Benchmark
+    public void checkout(Repo repo, Target t) {
+        run("checkout", t.branch);
+    }
+
+    @Benchmark
+    public void merge(Repo repo, Diverged d) {
+        run("merge", d.branch);
+    }
+
+    @Benchmark
+    public void fetch(Repo repo) {
+        run("fetch", "origin", "master");
+    }
+}
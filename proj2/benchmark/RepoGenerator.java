@@ -0,0 +1,181 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * 确定性的 gitlet 仓库生成器，用于性能测试
+ * 相同的参数和种子总会生成相同的文件内容、提交和分支合并拓扑
+ * <p>
+ * gitlet 的所有路径常量都在类加载时由 user.dir 决定，
+ * 所以必须在任何 gitlet 类被加载之前调用 {@link #prepare(File)}
+ * <p>
+ * 用法：java benchmark.RepoGenerator [dir] [files] [commits] [mergeEvery] [seed]
+ *
+ * @author Kai Decker
+ */
+public class RepoGenerator {
+
+    /* 工作区文件数 */
+    private final int files;
+    /* master 上的提交数，不包括初始提交和合并提交 */
+    private final int commits;
+    /* 每隔多少个提交创建一个分支并合并回 master，0 表示不分支 */
+    private final int mergeEvery;
+    /* 每个提交修改的文件数 */
+    private final int filesPerCommit;
+    /* 文件大小的下限和上限（字节） */
+    private final int minSize;
+    private final int maxSize;
+    /* 随机数种子 */
+    private final long seed;
+
+    private Random random;
+    private File root;
+    private int branchCount;
+
+    public RepoGenerator(int files, int commits, int mergeEvery, int filesPerCommit,
+                         int minSize, int maxSize, long seed) {
+        this.files = files;
+        this.commits = commits;
+        this.mergeEvery = mergeEvery;
+        this.filesPerCommit = Math.min(filesPerCommit, files);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.seed = seed;
+    }
+
+    /* 使用默认的文件大小分布和每次提交修改的文件数 */
+    public RepoGenerator(int files, int commits, int mergeEvery, long seed) {
+        this(files, commits, mergeEvery, 4, 64, 64 * 1024, seed);
+    }
+
+    public static void main(String[] args) {
+        File dir = new File(args.length > 0 ? args[0] : "gitlet-bench-repo").getAbsoluteFile();
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int commits = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int mergeEvery = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 61L;
+        prepare(dir);
+        new RepoGenerator(files, commits, mergeEvery, seed).generate(dir);
+    }
+
+    /**
+     * 创建（或清空）目录 DIR 并把它设为 gitlet 的工作目录
+     * 必须在 gitlet 的类被加载之前调用
+     */
+    public static void prepare(File dir) {
+        deleteRecursively(dir.toPath());
+        if (!dir.mkdirs()) {
+            throw new IllegalStateException("cannot create " + dir);
+        }
+        System.setProperty("user.dir", dir.getAbsolutePath());
+    }
+
+    /**
+     * 在 DIR 中生成仓库：初始化、添加全部文件，
+     * 然后按配置生成线性提交以及周期性的分支与合并
+     * 分支只修改偶数编号的文件，master 只修改奇数编号的文件，所以合并不会冲突
+     */
+    public void generate(File dir) {
+        random = new Random(seed);
+        root = dir;
+        run("init");
+        for (int i = 0; i < files; i++) {
+            writeFile(i);
+            run("add", fileName(i));
+        }
+        run("commit", "generated " + files + " files");
+        for (int c = 1; c <= commits; c++) {
+            if (mergeEvery > 0 && c % mergeEvery == 0) {
+                mergeBranch("b" + branchCount++);
+            } else {
+                commitChanges("commit " + c, 0);
+            }
+        }
+    }
+
+    /* 在 NAME 分支上提交一次修改，在 master 上也提交一次，然后合并 */
+    private void mergeBranch(String name) {
+        run("branch", name);
+        run("checkout", name);
+        commitChanges("change on " + name, 0);
+        run("checkout", "master");
+        commitChanges("change on master before " + name, 1);
+        run("merge", name);
+    }
+
+    /* 修改编号奇偶性为 PARITY 的若干文件，暂存并提交 */
+    private void commitChanges(String message, int parity) {
+        int half = Math.max(1, files / 2);
+        for (int k = 0; k < filesPerCommit; k++) {
+            int i = Math.min(files - 1, random.nextInt(half) * 2 + parity);
+            writeFile(i);
+            run("add", fileName(i));
+        }
+        run("commit", message);
+    }
+
+    /**
+     * 写入第 I 个文件，内容为随机的可打印字符
+     * 文件大小偏向小文件：大多数接近 minSize，少数接近 maxSize
+     */
+    private void writeFile(int i) {
+        double u = random.nextDouble();
+        int size = (int) (minSize * Math.pow((double) maxSize / minSize, u * u * u));
+        StringBuilder sb = new StringBuilder(size + 1);
+        for (int k = 0; k < size; k++) {
+            sb.append(k % 64 == 63 ? '\n' : (char) ('a' + random.nextInt(26)));
+        }
+        sb.append('\n');
+        try {
+            Files.writeString(new File(root, fileName(i)).toPath(), sb, StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    public static String fileName(int i) {
+        return String.format("f%06d.txt", i);
+    }
+
+    /* 在当前进程中执行一条 gitlet 命令 */
+    static void run(String... args) {
+        gitlet.Main.main(args);
+    }
+
+    /* 递归地复制目录 SOURCE 到 TARGET */
+    static void copyRecursively(Path source, Path target) {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Path q = target.resolve(source.relativize(p).toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(q);
+                } else {
+                    Files.copy(p, q);
+                }
+            }
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /* 递归地删除目录 DIR，目录不存在时什么也不做 */
+    static void deleteRecursively(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * 表示 gitlet-archive 命令，即把一个提交的快照导出为 zip 或 tar 文件
+ * <p>
+ * 文件内容直接从对象库读取，不经过工作区。读取并反序列化 blob 的工作
+ * 最多提前 {@value #WINDOW} 个文件并行进行，唯一的写入线程按文件名顺序依次写入，
+ * 所以输出是确定的，内存中同时只有少量的文件内容
+ * <br>
+ * 分块存储的大文件不会被整个读入内存，写入时按块流式地复制
+ *
+ * @author Kai Decker
+ */
+public class Archive {
+
+    /* 提前读取的文件数 */
+    private static final int WINDOW = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static final int TAR_BLOCK = 512;
+
+    /** 输出格式 */
+    public enum Format { ZIP, TAR, TGZ }
+
+    /* 一个已经读取的文件，普通文件为 DATA，大文件为 CHUNKS */
+    private static class Entry {
+        private final String name;
+        private final byte[] data;
+        private final String[] chunks;
+        private final long size;
+
+        Entry(String name, byte[] data, String[] chunks, long size) {
+            this.name = name;
+            this.data = data;
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            if (chunks == null) {
+                out.write(data);
+            } else {
+                Chunks.copyTo(chunks, out);
+            }
+        }
+    }
+
+    /**
+     * @return 文件名 NAME 对应的格式，根据扩展名判断，默认为 zip
+     */
+    public static Format formatOf(String name) {
+        if (name.endsWith(".tar")) {
+            return Format.TAR;
+        }
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            return Format.TGZ;
+        }
+        return Format.ZIP;
+    }
+
+    /**
+     * 把提交 C 的快照按格式 FORMAT 写入文件 OUT
+     * 文件名为相对于工作区的路径
+     *
+     * @return 写入的文件数
+     */
+    public static int archive(Commit c, File out, Format format) {
+        /* 按文件名排序的 (文件名, blob) */
+        Map<String, String> files = new TreeMap<>();
+        Path root = CWD.toPath();
+        c.getBlobs().forEach((path, blob) -> {
+            String name = root.relativize(new File(path).toPath()).toString();
+            files.put(name.replace(File.separatorChar, '/'), blob);
+        });
+        long mtime = c.getDate().getTime();
+
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(out.toPath()))) {
+            Writer w = format == Format.ZIP ? new ZipWriter(os, mtime)
+                    : new TarWriter(format == Format.TGZ ? new GZIPOutputStream(os) : os, mtime);
+            Deque<CompletableFuture<Entry>> window = new ArrayDeque<>();
+            for (Map.Entry<String, String> f : files.entrySet()) {
+                window.add(CompletableFuture.supplyAsync(() -> load(f.getKey(), f.getValue())));
+                if (window.size() >= WINDOW) {
+                    w.write(next(window));
+                }
+            }
+            while (!window.isEmpty()) {
+                w.write(next(window));
+            }
+            w.finish();
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", out, excp.getMessage());
+        }
+        return files.size();
+    }
+
+    /* 等待窗口中最早的文件读取完成，读取时的错误原样抛出而不是包装为 CompletionException */
+    private static Entry next(Deque<CompletableFuture<Entry>> window) {
+        try {
+            return window.poll().join();
+        } catch (CompletionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw excp;
+        }
+    }
+
+    /* 读取 blob 的内容，大文件只读取清单，大小记录在清单中 */
+    private static Entry load(String name, String id) {
+        Blob b = Methods.toBlob(id);
+        if (b == null) {
+            throw error("Missing blob %s for %s", id, name);
+        }
+        String[] chunks = b.getChunks();
+        if (chunks == null) {
+            byte[] data = b.getContent().getBytes(StandardCharsets.UTF_8);
+            return new Entry(name, data, null, data.length);
+        }
+        /* tar 的文件头需要先写入大小 */
+        return new Entry(name, null, chunks, b.getSize());
+    }
+
+    /* 按顺序写入文件的归档 */
+    private interface Writer {
+        void write(Entry e) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private static class ZipWriter implements Writer {
+        private final ZipOutputStream zip;
+        private final long mtime;
+
+        ZipWriter(OutputStream out, long mtime) {
+            this.zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+            this.mtime = mtime;
+        }
+
+        @Override
+        public void write(Entry e) throws IOException {
+            ZipEntry z = new ZipEntry(e.name);
+            z.setTime(mtime);
+            zip.putNextEntry(z);
+            e.writeTo(zip);
+            zip.closeEntry();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            zip.finish();
+        }
+    }
+
+    /* ustar 格式，名字超过 100 字节时拆分到 prefix 字段 */
+    private static class TarWriter implements Writer {
+        private final OutputStream out;
+        private final long mtime;
+
+        TarWriter(OutputStream out, long mtime) {
+            this.out = out;
+            this.mtime = mtime / 1000;
+        }
+
+        @Override
+        public void write(Entry e) throws IOException {
+            out.write(header(e.name, e.size));
+            e.writeTo(out);
+            int pad = (int) ((TAR_BLOCK - e.size % TAR_BLOCK) % TAR_BLOCK);
+            out.write(new byte[pad]);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.write(new byte[2 * TAR_BLOCK]);
+            if (out instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) out).finish();
+            }
+        }
+
+        private byte[] header(String name, long size) {
+            byte[] h = new byte[TAR_BLOCK];
+            byte[] n = name.getBytes(StandardCharsets.UTF_8);
+            byte[] prefix = new byte[0];
+            if (n.length > 100) {
+                int split = name.lastIndexOf('/');
+                if (split > 0) {
+                    prefix = name.substring(0, split).getBytes(StandardCharsets.UTF_8);
+                    n = name.substring(split + 1).getBytes(StandardCharsets.UTF_8);
+                }
+                if (split <= 0 || n.length > 100 || prefix.length > 155) {
+                    throw error("File name too long for tar: %s", name);
+                }
+            }
+            System.arraycopy(n, 0, h, 0, n.length);
+            octal(h, 100, 8, 0644);
+            octal(h, 108, 8, 0);
+            octal(h, 116, 8, 0);
+            octal(h, 124, 12, size);
+            octal(h, 136, 12, mtime);
+            h[156] = '0';
+            System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, h, 257, 6);
+            h[263] = '0';
+            h[264] = '0';
+            System.arraycopy(prefix, 0, h, 345, prefix.length);
+            /* 计算校验和时校验和字段视为空格 */
+            Arrays.fill(h, 148, 156, (byte) ' ');
+            long sum = 0;
+            for (byte b : h) {
+                sum += b & 0xff;
+            }
+            octal(h, 148, 7, sum);
+            return h;
+        }
+
+        /* 把 VALUE 以八进制写入 H[OFF, OFF + LEN)，末尾为 NUL */
+        private static void octal(byte[] h, int off, int len, long value) {
+            String s = Long.toOctalString(value);
+            if (s.length() > len - 1) {
+                throw error("Value too large for tar header: %d", value);
+            }
+            s = "0".repeat(len - 1 - s.length()) + s;
+            System.arraycopy(s.getBytes(StandardCharsets.US_ASCII), 0, h, off, len - 1);
+            h[off + len - 1] = 0;
+        }
+    }
+}
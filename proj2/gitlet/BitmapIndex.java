@@ -0,0 +1,280 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * 可达性位图索引，即 .gitlet/bitmaps 文件
+ * <p>
+ * 索引记录一张按 id 排序的对象表，以及一部分提交的可达对象集合：
+ * 第 i 位为 1 表示对象表中的第 i 个对象（提交、blob 或块）可以从这个提交到达。
+ * 位图按 roaring 的方式压缩保存（见 {@link CompressedBitmap}）
+ * <br>
+ * 计算一组提交的可达对象时从这些提交开始遍历，遇到有位图的提交就把位图并入结果，
+ * 不再读取它的祖先。所以 "从 A 可达但从 B 不可达的对象" 只需要遍历位图之后的少量新提交，
+ * 再做一次 AND-NOT
+ * <p>
+ * 索引在 gc 时重建，为所有分支的头提交以及沿第一父提交每隔 {@value #SPACING} 个提交
+ * 的提交计算位图；之后新写入的对象不在对象表中，遍历时单独记录
+ *
+ * @author Kai Decker
+ */
+public class BitmapIndex implements Serializable {
+
+    /* 固定序列化版本，重新编译之后已有的 bitmaps 文件仍然可以被读取 */
+    private static final long serialVersionUID = -2324347281247123195L;
+
+    public static final String FILE_NAME = "bitmaps";
+
+    /* 沿第一父提交每隔多少个提交保存一个位图 */
+    private static final int SPACING = 100;
+
+    /* 已经读取的索引，KEY 为文件路径，文件被修改后重新读取 */
+    private static final Map<File, BitmapIndex> CACHE = new ConcurrentHashMap<>();
+
+    /* 对象表，已排序 */
+    private final String[] objects;
+    /* 提交 uid 到它的可达对象位图的映射 */
+    private final HashMap<String, CompressedBitmap> bitmaps;
+
+    private transient long lastModified;
+    private transient long length;
+
+    private BitmapIndex(String[] objects, HashMap<String, CompressedBitmap> bitmaps) {
+        this.objects = objects;
+        this.bitmaps = bitmaps;
+    }
+
+    /** 一组提交的可达对象 */
+    public static class Closure {
+        private final BitmapIndex index;
+        /* 在对象表中的可达对象 */
+        private final BitSet bits = new BitSet();
+        /* 不在对象表中的可达对象 */
+        private final Set<String> extra = new HashSet<>();
+        /* 遍历时是否遇到了无法读取的提交 */
+        private boolean complete = true;
+
+        private Closure(BitmapIndex index) {
+            this.index = index;
+        }
+
+        private void add(String id) {
+            int i = Arrays.binarySearch(index.objects, id);
+            if (i >= 0) {
+                bits.set(i);
+            } else {
+                extra.add(id);
+            }
+        }
+
+        /**
+         * @return 遍历时是否读取到了所有的提交，浅克隆的历史不完整
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * @return 对象 ID 是否可达
+         */
+        public boolean contains(String id) {
+            int i = Arrays.binarySearch(index.objects, id);
+            return i >= 0 ? bits.get(i) : extra.contains(id);
+        }
+
+        /**
+         * 对每个可达对象调用 ACTION
+         */
+        public void forEach(Consumer<String> action) {
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                action.accept(index.objects[i]);
+            }
+            extra.forEach(action);
+        }
+
+        /**
+         * @return 从这组提交可达，但从 OTHER 不可达的对象
+         */
+        public List<String> andNot(Closure other) {
+            BitSet diff = (BitSet) bits.clone();
+            diff.andNot(other.bits);
+            List<String> ret = new ArrayList<>();
+            for (int i = diff.nextSetBit(0); i >= 0; i = diff.nextSetBit(i + 1)) {
+                ret.add(index.objects[i]);
+            }
+            for (String id : extra) {
+                if (!other.extra.contains(id)) {
+                    ret.add(id);
+                }
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * 读取仓库 GITLETDIR 的位图索引，文件不存在或无法读取时返回空的索引
+     */
+    public static BitmapIndex read(File gitletDir) {
+        File f = join(gitletDir, FILE_NAME);
+        BitmapIndex cached = CACHE.get(f);
+        if (cached != null && cached.lastModified == f.lastModified()
+                && cached.length == f.length()) {
+            return cached;
+        }
+        BitmapIndex ret = new BitmapIndex(new String[0], new HashMap<>());
+        if (f.isFile()) {
+            try {
+                ret = readObject(f, BitmapIndex.class);
+            } catch (IllegalArgumentException excp) {
+                /* 索引损坏时不使用位图 */
+            }
+        }
+        ret.lastModified = f.lastModified();
+        ret.length = f.length();
+        CACHE.put(f, ret);
+        return ret;
+    }
+
+    /**
+     * 提交 COMMIT 有位图时，对位图中的每个对象调用 ACTION
+     *
+     * @return 提交是否有位图
+     */
+    public boolean forEachInBitmap(String commit, Consumer<String> action) {
+        CompressedBitmap b = bitmaps.get(commit);
+        if (b == null) {
+            return false;
+        }
+        BitSet bits = b.toBitSet();
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            action.accept(objects[i]);
+        }
+        return true;
+    }
+
+    /**
+     * 计算从 COMMITS 可达的所有对象
+     *
+     * @param objectsDir 提交所在的对象库
+     * @param manifests  对象库中的大文件清单，它们的块也是可达的
+     */
+    public Closure closure(Collection<String> commits, File objectsDir, Set<String> manifests) {
+        Closure ret = new Closure(this);
+        Deque<String> stack = new ArrayDeque<>();
+        commits.forEach(stack::push);
+        /* 有位图的提交不需要读取，也不需要读取它的祖先 */
+        try (Prefetch prefetch = Prefetch.walk(objectsDir, commits, bitmaps::containsKey)) {
+            walk(ret, stack, prefetch, objectsDir, manifests);
+        }
+        return ret;
+    }
+
+    /* 从 STACK 中的提交开始遍历，把可达的对象加入 RET */
+    private void walk(Closure ret, Deque<String> stack, Prefetch prefetch,
+                      File objectsDir, Set<String> manifests) {
+        Set<String> visited = new HashSet<>();
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            if (!visited.add(id) || ret.contains(id)) {
+                continue;
+            }
+            CompressedBitmap b = bitmaps.get(id);
+            if (b != null) {
+                b.orInto(ret.bits);
+                continue;
+            }
+            Commit c = prefetch.get(id);
+            if (c == null) {
+                ret.complete = false;
+                continue;
+            }
+            ret.add(id);
+            for (String blob : c.getBlobs().values()) {
+                if (ret.contains(blob)) {
+                    continue;
+                }
+                ret.add(blob);
+                File m = join(objectsDir, blob.substring(0, 2), blob.substring(2));
+                if (manifests.contains(blob) && m.exists()) {
+                    Arrays.stream(readObject(m, Blob.class).getChunks()).forEach(ret::add);
+                }
+            }
+            for (String p : new String[] {c.getParentAsString(), c.getSecondParentAsString()}) {
+                if (p != null && !p.isEmpty()) {
+                    stack.push(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * 重建本仓库的位图索引
+     *
+     * @return 保存了位图的提交数
+     */
+    public static int write() {
+        BitmapIndex index = new BitmapIndex(objectIds().toArray(new String[0]), new HashMap<>());
+        Set<String> manifests = Chunks.manifests(COMMON_DIR);
+        /* 从旧到新计算，之后的提交可以直接使用之前的位图 */
+        List<Commit> selected = new ArrayList<>(selectCommits());
+        selected.sort(Comparator.comparing(Commit::getDate));
+        for (Commit c : selected) {
+            Closure closure = index.closure(List.of(c.getUid()), OBJECTS_DIR, manifests);
+            /* 浅克隆或者缺失对象时可达集合不完整，不能保存 */
+            if (closure.complete && closure.extra.isEmpty()) {
+                index.bitmaps.put(c.getUid(), CompressedBitmap.of(closure.bits));
+            }
+        }
+        File f = join(COMMON_DIR, FILE_NAME);
+        File tmp = new File(f.getPath() + ".lock");
+        writeObject(tmp, index);
+        try {
+            Files.move(tmp.toPath(), f.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", f, excp.getMessage());
+        }
+        CACHE.remove(f);
+        return index.bitmaps.size();
+    }
+
+    /* 所有分支和 HEAD 的头提交，以及沿第一父提交每隔 SPACING 个的提交 */
+    private static Collection<Commit> selectCommits() {
+        Map<String, Commit> ret = new HashMap<>();
+        List<String> tips = new ArrayList<>();
+        tips.add(Methods.readHEADContent());
+        Branch.all().forEach(b -> tips.add(b.getHEADAsString()));
+        for (String tip : tips) {
+            Commit c = Methods.toCommit(tip);
+            for (int n = 0; c != null; n++) {
+                if (n % SPACING == 0 && ret.putIfAbsent(c.getUid(), c) != null) {
+                    /* 之后的提交已经从其他分支选择过 */
+                    break;
+                }
+                c = Methods.toCommit(c.getParentAsString());
+            }
+        }
+        return ret.values();
+    }
+}
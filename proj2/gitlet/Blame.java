@@ -0,0 +1,282 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/**
+ * 表示 gitlet-blame 命令，即找出文件的每一行最后是由哪个提交修改的
+ * <p>
+ * 从给定的提交开始按时间从新到旧遍历提交图，每个待处理的提交记录
+ * "它的版本中的第几行对应结果中的第几行"。处理一个提交时：
+ * 父提交中文件的 blob 相同时，所有的行原样交给父提交，不需要比较；
+ * 否则用 {@link Diff} 比较两个版本，相同的行交给父提交，剩下的行归属于这个提交
+ * <p>
+ * 遍历中处理过的每个提交的结果按 (提交, 文件) 缓存在 .gitlet/blame 中，
+ * 文件没有变化的提交只缓存开始的提交，它们遍历到父提交的缓存时不需要比较，
+ * 之后的 blame 遍历到有缓存的提交时直接使用缓存，不再继续往前遍历，
+ * 所以对同一个文件反复 blame 或者 blame 更早的提交只需要处理新的提交
+ *
+ * @author Kai Decker
+ */
+public class Blame {
+
+    private static final File CACHE_DIR = join(Repository.COMMON_DIR, "blame");
+
+    /* 缓存的一次 blame 结果 */
+    private static class LineMap implements Serializable {
+        /* 固定序列化版本，重新编译之后已有的缓存仍然有效 */
+        private static final long serialVersionUID = -5984494278752417669L;
+
+        /* 结果中出现的提交 */
+        private final String[] commits;
+        /* 每一行所属的提交在 COMMITS 中的下标 */
+        private final int[] owners;
+
+        LineMap(String[] owners) {
+            Map<String, Integer> index = new HashMap<>();
+            List<String> cs = new ArrayList<>();
+            this.owners = new int[owners.length];
+            for (int i = 0; i < owners.length; i++) {
+                this.owners[i] = index.computeIfAbsent(owners[i], k -> {
+                    cs.add(k);
+                    return cs.size() - 1;
+                });
+            }
+            this.commits = cs.toArray(new String[0]);
+        }
+
+        String owner(int line) {
+            return commits[owners[line]];
+        }
+    }
+
+    /*
+     * 一个待处理的提交，处理之后 FROM[i] 和 LINE[i] 表示它的版本中的第 i 行
+     * 来自提交 FROM[i] 的版本中的第 LINE[i] 行，FROM[i] 为 null 时这一行属于这个提交
+     * 所有的行都解析完之后，OWNERS[i] 为第 i 行所属的提交
+     */
+    private static class Pending {
+        private final Commit commit;
+        private Pending[] from;
+        private int[] line;
+        private String[] owners;
+
+        Pending(Commit commit) {
+            this.commit = commit;
+        }
+
+        /* 第 I 行所属的提交，要求 FROM[i] 已经解析 */
+        String resolve(int i) {
+            return from[i] == null ? commit.getUid() : from[i].owners[line[i]];
+        }
+    }
+
+    /**
+     * 打印提交 C 中文件 FILE 的每一行及其所属的提交
+     * 格式为 "[提交 id 前 8 位] ([提交时间] [行号]) [内容]"
+     */
+    public static void blame(Commit c, File file) {
+        String path = file.getAbsolutePath();
+        String blob = c.getBlobs().get(path);
+        if (blob == null) {
+            Methods.exit("File does not exist in that commit.");
+        }
+        String[] lines = Methods.toBlob(blob).lines();
+        String[] owners = owners(c, path, lines);
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        SimpleDateFormat d = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
+        Map<String, String> dates = new HashMap<>();
+        int width = String.valueOf(lines.length).length();
+        for (int i = 0; i < lines.length; i++) {
+            String owner = owners[i];
+            String date = dates.computeIfAbsent(owner,
+                    k -> d.format(Methods.toCommit(k).getDate()));
+            out.printf("%s (%s %" + width + "d) %s%n",
+                    owner.substring(0, 8), date, i + 1, lines[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * 遍历时记录每个提交的版本中所有的行来自哪里，而不只是 C 中仍然存在的行，
+     * 所以遍历结束后每个处理过的提交都有完整的结果，
+     * 文件相对于第一父提交有变化的提交都会写入缓存，
+     * 之后 blame 更早的提交或者有了新的提交时都可以直接使用
+     *
+     * @return 提交 C 中文件 PATH（内容为 LINES）的每一行所属的提交 uid
+     */
+    private static String[] owners(Commit c, String path, String[] lines) {
+        LineMap cached = readCache(c.getUid(), path);
+        if (cached != null && cached.owners.length == lines.length) {
+            String[] ret = new String[lines.length];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = cached.owner(i);
+            }
+            return ret;
+        }
+
+        Map<String, Pending> pending = new HashMap<>();
+        PriorityQueue<Pending> queue = new PriorityQueue<>(
+                Comparator.comparing((Pending p) -> p.commit.getDate()).reversed());
+        Pending start = new Pending(c);
+        pending.put(c.getUid(), start);
+        queue.add(start);
+        /* 按处理的顺序排列，父提交总在子提交之后 */
+        List<Pending> processed = new ArrayList<>();
+        /* 正在比较的版本的内容，按 blob id 缓存 */
+        Map<String, String[]> contents = new HashMap<>();
+        contents.put(c.getBlobs().get(path), lines);
+
+        while (!queue.isEmpty()) {
+            Pending p = queue.poll();
+            processed.add(p);
+            String blob = p.commit.getBlobs().get(path);
+            String[] version = content(blob, contents);
+            LineMap map = p == start ? null : readCache(p.commit.getUid(), path);
+            if (map != null && map.owners.length == version.length) {
+                p.owners = new String[version.length];
+                for (int i = 0; i < version.length; i++) {
+                    p.owners[i] = map.owner(i);
+                }
+                contents.remove(blob);
+                continue;
+            }
+            p.from = new Pending[version.length];
+            p.line = new int[version.length];
+            int left = version.length;
+            for (String parentId : parents(p.commit)) {
+                if (left == 0) {
+                    break;
+                }
+                Commit parent = Methods.toCommit(parentId);
+                String parentBlob = parent == null ? null : parent.getBlobs().get(path);
+                if (parentBlob == null) {
+                    continue;
+                }
+                Pending target = pending.get(parentId);
+                if (target == null) {
+                    target = new Pending(parent);
+                    pending.put(parentId, target);
+                    queue.add(target);
+                }
+                /* 文件没有变化时所有剩下的行原样交给父提交，不需要比较 */
+                int[] match = parentBlob.equals(blob) ? null
+                        : Diff.match(content(parentBlob, contents), version);
+                for (int i = 0; i < version.length; i++) {
+                    if (p.from[i] == null && (match == null || match[i] >= 0)) {
+                        p.from[i] = target;
+                        p.line[i] = match == null ? i : match[i];
+                        left--;
+                    }
+                }
+            }
+            /* 这个版本不会再被比较 */
+            contents.remove(blob);
+        }
+
+        /* 从最早的提交开始解析，提交时间不可靠时先解析还没有结果的父提交 */
+        Deque<Pending> stack = new ArrayDeque<>();
+        for (int k = processed.size() - 1; k >= 0; k--) {
+            stack.push(processed.get(k));
+            while (!stack.isEmpty()) {
+                Pending p = stack.peek();
+                if (p.owners != null) {
+                    stack.pop();
+                    continue;
+                }
+                Pending next = null;
+                for (Pending f : p.from) {
+                    if (f != null && f.owners == null) {
+                        next = f;
+                        break;
+                    }
+                }
+                if (next != null) {
+                    stack.push(next);
+                    continue;
+                }
+                stack.pop();
+                p.owners = new String[p.from.length];
+                for (int i = 0; i < p.owners.length; i++) {
+                    p.owners[i] = p.resolve(i);
+                }
+                if (p == start || changed(p.commit, path)) {
+                    writeCache(p.commit.getUid(), path, new LineMap(p.owners));
+                }
+            }
+        }
+        return start.owners;
+    }
+
+    /* 提交 C 中的文件 PATH 是否和第一父提交中的不同 */
+    private static boolean changed(Commit c, String path) {
+        Commit parent = c.getParentAsString() == null ? null
+                : Methods.toCommit(c.getParentAsString());
+        return parent == null || !c.getBlobs().get(path).equals(parent.getBlobs().get(path));
+    }
+
+    /* blob 的内容按行切开，同一个 blob 只读取一次 */
+    private static String[] content(String blob, Map<String, String[]> contents) {
+        return contents.computeIfAbsent(blob, b -> Methods.toBlob(b).lines());
+    }
+
+    /* 提交 C 的父提交 uid，第一父提交在前 */
+    private static List<String> parents(Commit c) {
+        List<String> ret = new ArrayList<>(2);
+        if (c.getParentAsString() != null) {
+            ret.add(c.getParentAsString());
+        }
+        if (c.getSecondParentAsString() != null) {
+            ret.add(c.getSecondParentAsString());
+        }
+        return ret;
+    }
+
+    /* 缓存文件，按提交和文件路径命名 */
+    private static File cacheFile(String commit, String path) {
+        return join(CACHE_DIR, sha1(commit, path));
+    }
+
+    private static LineMap readCache(String commit, String path) {
+        File f = cacheFile(commit, path);
+        if (!f.isFile()) {
+            return null;
+        }
+        try {
+            return readObject(f, LineMap.class);
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    private static void writeCache(String commit, String path, LineMap map) {
+        CACHE_DIR.mkdir();
+        writeObject(cacheFile(commit, path), map);
+    }
+
+    /**
+     * 删除所有缓存，用于 gc 删除了提交之后
+     */
+    public static void clearCache() {
+        List<String> files = plainFilenamesIn(CACHE_DIR);
+        if (files != null) {
+            files.forEach(n -> join(CACHE_DIR, n).delete());
+        }
+    }
+}
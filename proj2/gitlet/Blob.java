@@ -1,7 +1,22 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static gitlet.Utils.*;
 
@@ -15,42 +30,243 @@ import static gitlet.Utils.*;
 
 public class Blob implements Serializable {
 
+    /* 固定序列化版本，保证旧仓库中的 blob 仍然可以被读取 */
+    private static final long serialVersionUID = 2534371035374066244L;
+
     /* 文件内容 */
     private final String content;
     /* blob 对象的 SHA-1 id */
     private final String uid;
 
+    /* 分块存储的大文件的块 id，即清单，普通的 blob 为 null，见 Chunks */
+    private String[] chunks;
+    /* 分块存储的文件的总字节数，旧的清单中没有记录，为 0 */
+    private long size;
+
+    /* 分块存储时尚未写入的源文件 */
+    private transient File source;
+
     /**
      * 使用文件 f 实例化一个 blob 对象
      * blob 意味着文件的快照
      */
     public Blob(File f) {
-        this.content = readContentsAsString(f);
-        this.uid = getBlobName(f);
+        if (Chunks.isLarge(f)) {
+            /* 大文件在 makeBlob 时才流式地分块，不读入内存 */
+            this.content = null;
+            this.uid = Chunks.hash(f);
+            this.source = f;
+        } else {
+            this.content = readContentsAsString(f);
+            this.uid = getBlobName(this.content);
+        }
+    }
+
+    /* 使用已知的内容和 uid 实例化一个 blob 对象，用于迁移 */
+    private Blob(String content, String uid) {
+        this.content = content;
+        this.uid = uid;
     }
 
     /**
-     * 使用文件内容和文件名来生成 SHA-1 哈希
+     * 只使用文件内容来生成 SHA-1 哈希
+     * 文件名保存在提交的快照映射中，因此内容相同的文件共享同一个 blob
      *
      * @return blob 的 SHA-1 id
      */
     public static String getBlobName(File f) {
-        return sha1(readContentsAsString(f) + f.getName());
+        if (Chunks.isLarge(f)) {
+            return Chunks.hash(f);
+        }
+        return getBlobName(readContentsAsString(f));
+    }
+
+    /* 根据文件内容计算 blob 的 SHA-1 id */
+    public static String getBlobName(String content) {
+        return sha1(content);
     }
 
     /**
-     * 将 blob 对象序列化写入 TEMP_DIR.
+     * 将 blob 对象序列化写入 OBJECTS_DIR
+     * 如果相同内容的 blob 已经存在，则不再重复写入
      *
      * @return blob 的 40-length uid
      */
     public String makeBlob() {
         File out = Repository.makeObjectDir(this.uid);
-        writeObject(out, this);
+        if (!out.exists()) {
+            if (source != null) {
+                size = source.length();
+                chunks = Chunks.write(source);
+            }
+            writeObject(out, this);
+            if (chunks != null) {
+                Chunks.register(Repository.COMMON_DIR, uid);
+            }
+        }
         return this.uid;
     }
 
-    /* 用于在 checkout 时取出文件的原始内容 */
+    /**
+     * 如果 OLDID 是文件 NAME 按旧格式（内容 + 文件名）寻址的 blob，返回它迁移后的 id
+     *
+     * @return 迁移后的 blob id，已经是新格式、不存在或者无法确认时返回原 id
+     */
+    public static String migratedId(String oldId, String name) {
+        Blob old = Methods.toBlob(oldId);
+        if (old == null || old.chunks != null || old.verify(oldId)
+                || !sha1(old.content + name).equals(oldId)) {
+            return oldId;
+        }
+        return getBlobName(old.content);
+    }
+
+    /**
+     * 按 RENAMED 把旧格式的 blob 以新的 id 重新写入
+     * 旧 id 可能恰好等于另一个文件内容的哈希，即它的文件会被某个新 blob 覆盖，
+     * 所以先读出所有会被覆盖的旧 blob，再开始写入
+     *
+     * @param renamed KEY 为旧 blob id，VALUE 为新 blob id
+     */
+    public static void writeMigrated(Map<String, String> renamed) {
+        Set<String> targets = new HashSet<>(renamed.values());
+        Map<String, String> overwritten = new HashMap<>();
+        renamed.forEach((oldId, newId) -> {
+            if (!oldId.equals(newId) && targets.contains(oldId)) {
+                overwritten.put(oldId, Methods.toBlob(oldId).content);
+            }
+        });
+        renamed.forEach((oldId, newId) -> {
+            if (oldId.equals(newId)) {
+                return;
+            }
+            String content = overwritten.containsKey(oldId)
+                    ? overwritten.get(oldId) : Methods.toBlob(oldId).content;
+            File out = Repository.makeObjectDir(newId);
+            /* 已经存在的新格式 blob 不需要重写，旧格式的 blob 则被覆盖 */
+            Blob existing = out.exists() && !overwritten.containsKey(newId)
+                    ? Methods.toBlob(newId) : null;
+            if (existing == null || !existing.verify(newId)) {
+                writeObject(out, new Blob(content, newId));
+            }
+        });
+    }
+
+    /**
+     * 文件的内容，分块存储的文件会把所有块拼接起来
+     * 检出文件时应使用 {@link #writeTo(File)}，按行处理时应使用 {@link #forEachLine(Consumer)}，
+     * 它们不需要把整个文件读入内存
+     */
     public String getContent() {
-        return content;
+        if (chunks == null) {
+            return content;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Chunks.copyTo(chunks, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 按 '\n' 切开文件内容，依次把每一行交给 ACTION，和 content.split("\n", -1) 的结果相同
+     * 分块存储的文件按块流式地读取，不会把整个文件读入内存
+     */
+    public void forEachLine(Consumer<String> action) {
+        if (chunks == null) {
+            for (String line : content.split("\n", -1)) {
+                action.accept(line);
+            }
+            return;
+        }
+        StringBuilder line = new StringBuilder();
+        char[] buf = new char[8 << 10];
+        try (Reader in = new InputStreamReader(Chunks.open(chunks), StandardCharsets.UTF_8)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '\n') {
+                        line.append(buf, start, i - start);
+                        action.accept(line.toString());
+                        line.setLength(0);
+                        start = i + 1;
+                    }
+                }
+                line.append(buf, start, n - start);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        action.accept(line.toString());
+    }
+
+    /**
+     * @return 文件内容的每一行，和 {@link Diff#lines(String)} 的结果相同
+     */
+    public String[] lines() {
+        if (chunks == null) {
+            return Diff.lines(content);
+        }
+        List<String> ret = new ArrayList<>();
+        forEachLine(ret::add);
+        /* 最后一段为空说明文件以换行结尾，或者文件为空 */
+        if (ret.get(ret.size() - 1).isEmpty()) {
+            ret.remove(ret.size() - 1);
+        }
+        return ret.toArray(new String[0]);
+    }
+
+    /**
+     * 把文件内容写入 F，分块存储的文件按块流式地写入
+     */
+    public void writeTo(File f) {
+        if (chunks == null) {
+            writeContents(f, content);
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(f.toPath()))) {
+            Chunks.copyTo(chunks, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        FsMonitor.touched(f);
+    }
+
+    /**
+     * @return 分块存储的文件的块 id，普通的 blob 返回 null
+     */
+    public String[] getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return 文件内容的字节数，分块存储的文件不需要读取块
+     */
+    public long getSize() {
+        if (chunks == null) {
+            return content.getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (size > 0) {
+            return size;
+        }
+        /* 旧的清单没有记录大小，读取所有块计算 */
+        long ret = 0;
+        for (String chunk : chunks) {
+            ret += Chunks.read(Repository.OBJECTS_DIR, chunk).length;
+        }
+        return ret;
+    }
+
+    /**
+     * @return 内容是否哈希到 ID，分块存储的文件会读取所有块
+     */
+    public boolean verify(String id) {
+        if (chunks == null) {
+            return getBlobName(content).equals(id);
+        }
+        return id.equals(Chunks.hash(chunks));
     }
 }
@@ -2,9 +2,13 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static gitlet.Repository.BRANCHES_DIR;
+import static gitlet.Repository.COMMON_DIR;
 import static gitlet.Utils.join;
 
 /**
@@ -15,6 +19,9 @@ import static gitlet.Utils.join;
 
 public class Branch implements Serializable {
 
+    /* 固定序列化版本，保证旧仓库中的分支仍然可以被读取 */
+    private static final long serialVersionUID = 5849842368206684836L;
+
     /* 分支名字 */
     private final String name;
     /* 当前分支指针指向的提交 uid */
@@ -32,11 +39,52 @@ public class Branch implements Serializable {
         this.HEAD = head;
     }
 
-    /* 判断给定名字的分支是否存在 */
+    /* 只设置名字，不检查是否已经存在 */
+    private Branch(String name) {
+        this.name = name;
+    }
+
+    /* 使用 packed-refs 中的一项实例化分支，不检查是否已经存在 */
+    private static Branch fromPacked(String name, String head) {
+        Branch ret = new Branch(name);
+        ret.HEAD = head;
+        return ret;
+    }
+
+    /* 复制这个分支对象，不检查是否已经存在，见 Daemon#cached */
+    Branch copy() {
+        return fromPacked(name, HEAD);
+    }
+
+    /**
+     * 判断给定名字的分支是否存在
+     * 只检查单个分支文件和 packed-refs，不需要列出整个 refs/heads 目录
+     */
     public static boolean isExists(String name) {
         name = correctName(name);
-        List<String> names = Utils.plainFilenamesIn(BRANCHES_DIR);
-        return names != null && names.contains(name);
+        return join(BRANCHES_DIR, name).isFile()
+                || PackedRefs.read(COMMON_DIR).get(name) != null;
+    }
+
+    /**
+     * @return 所有分支的文件名，包括单个分支文件和 packed-refs 中的分支，已排序
+     */
+    public static List<String> names() {
+        Set<String> names = new TreeSet<>(PackedRefs.read(COMMON_DIR).keys());
+        List<String> loose = Utils.plainFilenamesIn(BRANCHES_DIR);
+        if (loose != null) {
+            names.addAll(loose);
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * @return 仓库中的所有分支
+     */
+    public static List<Branch> all() {
+        List<Branch> ret = new ArrayList<>();
+        names().forEach(n -> ret.add(readBranch(n)));
+        return ret;
     }
 
     /* 根据给定的名字来反序列化读取分支 branch 对象 */
@@ -45,10 +93,20 @@ public class Branch implements Serializable {
         return readBranch(name, BRANCHES_DIR);
     }
 
+    /**
+     * 从分支目录 DIR 中读取分支，单个分支文件不存在时
+     * 再从 DIR 所在仓库的 packed-refs 中查找
+     */
     public static Branch readBranch(String name, File dir) {
         name = correctName(name);
         File b = join(dir, name);
-        return !b.exists() ? null : Utils.readObject(b, Branch.class);
+        if (b.exists()) {
+            return Utils.readObject(b, Branch.class);
+        }
+        /* DIR 为 .gitlet/refs/heads */
+        PackedRefs packed = PackedRefs.read(dir.getParentFile().getParentFile());
+        String head = packed.get(name);
+        return head == null ? null : fromPacked(packed.getName(name), head);
     }
 
     public static String correctName(String name) {
@@ -70,8 +128,9 @@ public class Branch implements Serializable {
      * @return 文件存在且被删除就返回 true
      */
     public boolean remove(String branchName) {
-        File b = join(BRANCHES_DIR, branchName);
-        return b.delete();
+        File b = join(BRANCHES_DIR, correctName(branchName));
+        boolean loose = b.delete();
+        return PackedRefs.read(COMMON_DIR).remove(branchName) || loose;
     }
 
     /* 修改 HEAD 头指针指向的提交 uid */
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * 表示 bundle 文件，即不需要远程仓库就可以传输历史的单个文件
+ * <p>
+ * 文件依次包含：
+ * <br>  1. 一行文件头 {@value #MAGIC}
+ * <br>  2. 分支列表：分支数，以及每个分支的名字和头提交 uid
+ * <br>  3. 对象列表：对象数，以及每个对象的类别、id、长度和序列化后的内容
+ * <br>  4. 之前所有字节的 SHA-1
+ * <p>
+ * 对象按块、blob、提交的顺序排列，父提交总是在子提交之前，
+ * 所以导入时只需要顺序读取一遍：每个对象在读到时就检查它是否和 id 一致（范围见下文）、
+ * 它引用的对象是否已经存在，然后直接写入对象库。
+ * 最后的 SHA-1 一致之后才会更新分支，中途失败时只会留下一些没有被引用的对象，由 gc 删除
+ * <p>
+ * 块和 blob 的 id 是内容的哈希，会被完整地检查；
+ * 提交的 id 只由父提交、时间和提交信息计算（见 {@link Commit#setUid()}），
+ * 所以快照映射和第二父提交被替换过的提交仍然可以通过检查，只要它们引用的对象存在。
+ * 最后的 SHA-1 只能发现传输中的损坏，伪造 bundle 的人可以重新计算它，
+ * 所以 bundle 只应该从可信的来源导入
+ *
+ * @author Kai Decker
+ */
+public class Bundle {
+
+    private static final String MAGIC = "# gitlet bundle v1";
+
+    /* 读取包中的对象时允许的类，其他的类一律拒绝 */
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "gitlet.Blob;gitlet.Commit;gitlet.Chunks$Chunk;java.util.HashMap;java.util.Map$Entry;"
+                    + "java.util.Date;java.lang.String;maxdepth=4;!*");
+
+    /* 对象的类别 */
+    private static final byte CHUNK = 1;
+    private static final byte BLOB = 2;
+    private static final byte COMMIT = 3;
+
+    /**
+     * 把分支 BRANCH 的全部历史写入 bundle 文件 OUT
+     *
+     * @return 写入的对象数
+     */
+    public static int create(File out, Branch branch) {
+        String head = branch.getHEADAsString();
+        BitmapIndex.Closure closure = BitmapIndex.read(COMMON_DIR)
+                .closure(List.of(head), OBJECTS_DIR, Chunks.manifests(COMMON_DIR));
+        if (!closure.isComplete()) {
+            Methods.exit("Cannot bundle an incomplete history.");
+        }
+        /* 先按类别分组 */
+        List<String> chunks = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        Map<String, Commit> commits = new HashMap<>();
+        closure.forEach(id -> {
+            Object obj = readObject(getObjectFile(id), Serializable.class);
+            if (obj instanceof Commit) {
+                commits.put(id, (Commit) obj);
+            } else if (obj instanceof Blob) {
+                blobs.add(id);
+            } else {
+                chunks.add(id);
+            }
+        });
+        /* 父提交总是在子提交之前 */
+        List<String> history = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>(List.of(head));
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (done.contains(id)) {
+                stack.pop();
+                continue;
+            }
+            Commit c = commits.get(id);
+            boolean ready = true;
+            for (String p : new String[] {c.getParentAsString(), c.getSecondParentAsString()}) {
+                if (commits.containsKey(p) && !done.contains(p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                done.add(id);
+                history.add(id);
+            }
+        }
+
+        MessageDigest md = Chunks.sha1Digest();
+        try (DataOutputStream os = new DataOutputStream(new DigestOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(out.toPath())), md))) {
+            os.write((MAGIC + "\n").getBytes(StandardCharsets.UTF_8));
+            os.writeInt(1);
+            os.writeUTF(branch.getName());
+            os.writeUTF(head);
+            os.writeInt(chunks.size() + blobs.size() + history.size());
+            writeObjects(os, CHUNK, chunks);
+            writeObjects(os, BLOB, blobs);
+            writeObjects(os, COMMIT, history);
+            os.flush();
+            os.write(md.digest());
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", out, excp.getMessage());
+        }
+        return chunks.size() + blobs.size() + history.size();
+    }
+
+    private static void writeObjects(DataOutputStream os, byte type, List<String> ids)
+            throws IOException {
+        for (String id : ids) {
+            byte[] data = readContents(getObjectFile(id));
+            os.writeByte(type);
+            os.writeUTF(id);
+            os.writeInt(data.length);
+            os.write(data);
+        }
+    }
+
+    /**
+     * 顺序读取 bundle 文件 IN，把其中的对象写入本地对象库，
+     * 并把每个分支记录为 [bundle 文件名]/[分支名]
+     *
+     * @return bundle 中的分支名到头提交 uid 的映射
+     */
+    public static Map<String, String> fetch(File in) {
+        String name = in.getName();
+        if (name.contains(".")) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+        Map<String, String> refs = new LinkedHashMap<>();
+        Set<String> manifests = Chunks.manifests(COMMON_DIR);
+        MessageDigest md = Chunks.sha1Digest();
+        try (DataInputStream is = new DataInputStream(new DigestInputStream(
+                new BufferedInputStream(Files.newInputStream(in.toPath())), md))) {
+            byte[] magic = new byte[MAGIC.length() + 1];
+            is.readFully(magic);
+            if (!new String(magic, StandardCharsets.UTF_8).equals(MAGIC + "\n")) {
+                Methods.exit("Not a bundle file.");
+            }
+            int nRefs = is.readInt();
+            for (int i = 0; i < nRefs; i++) {
+                refs.put(is.readUTF(), is.readUTF());
+            }
+            int nObjects = is.readInt();
+            for (int i = 0; i < nObjects; i++) {
+                byte type = is.readByte();
+                String id = is.readUTF();
+                byte[] data = new byte[is.readInt()];
+                is.readFully(data);
+                File f = getObjectFile(id);
+                if (f.exists()) {
+                    continue;
+                }
+                Object obj = deserialize(data);
+                if (!verify(type, id, obj)) {
+                    Methods.exit("Bundle is corrupt: bad object " + id + ".");
+                }
+                writeContents(makeObjectDir(id), (Object) data);
+                if (type == BLOB && ((Blob) obj).getChunks() != null
+                        && !manifests.contains(id)) {
+                    Chunks.register(COMMON_DIR, id);
+                }
+            }
+            byte[] expected = md.digest();
+            byte[] actual = new byte[expected.length];
+            is.readFully(actual);
+            if (!Arrays.equals(expected, actual) || is.read() != -1) {
+                Methods.exit("Bundle is corrupt: checksum mismatch.");
+            }
+        } catch (EOFException excp) {
+            Methods.exit("Bundle is corrupt: unexpected end of file.");
+        } catch (IOException excp) {
+            throw error("Cannot read %s: %s", in, excp.getMessage());
+        }
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            String branchName = name + "/" + ref.getKey();
+            Branch b;
+            if (!Branch.isExists(branchName)) {
+                b = new Branch(branchName, ref.getValue());
+            } else {
+                b = Branch.readBranch(branchName);
+                b.setHEADContent(ref.getValue());
+            }
+            writeObject(join(BRANCHES_DIR, b.toString()), b);
+        }
+        return refs;
+    }
+
+    /**
+     * 检查对象的 id 是否和内容一致，以及它引用的对象是否已经存在
+     * 提交只能检查父提交、时间和提交信息，见类的说明
+     * 块在清单之前、blob 和父提交在提交之前，所以被引用的对象一定已经导入
+     */
+    private static boolean verify(byte type, String id, Object obj) {
+        if (type == CHUNK && obj instanceof Chunks.Chunk) {
+            return sha1("chunk", ((Chunks.Chunk) obj).getData()).equals(id);
+        } else if (type == BLOB && obj instanceof Blob) {
+            return ((Blob) obj).verify(id);
+        } else if (type == COMMIT && obj instanceof Commit) {
+            Commit c = (Commit) obj;
+            if (!c.verify(id)) {
+                return false;
+            }
+            for (String p : new String[] {c.getParentAsString(), c.getSecondParentAsString()}) {
+                if (p != null && !p.isEmpty() && !getObjectFile(p).exists()) {
+                    return false;
+                }
+            }
+            return c.getBlobs().values().stream().allMatch(b -> getObjectFile(b).exists());
+        }
+        return false;
+    }
+
+    /**
+     * 反序列化一个对象，失败时返回 null
+     * 包文件来自仓库之外，所以只允许对象库中的三种对象以及它们的字段用到的类
+     */
+    private static Object deserialize(byte[] data) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            in.setObjectInputFilter(FILTER);
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException excp) {
+            return null;
+        }
+    }
+}
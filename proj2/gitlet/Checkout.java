@@ -1,7 +1,6 @@
 package gitlet;
 
 import java.io.File;
-import java.util.HashMap;
 import java.util.Map;
 
 import static gitlet.Utils.*;
@@ -57,6 +56,9 @@ public class Checkout {
         if (currentBranch.toString().equals(name)) {
             Methods.exit("No need to checkout the current branch.");
         }
+        if (Worktree.isCheckedOutElsewhere(name)) {
+            Methods.exit("That branch is already checked out in another worktree.");
+        }
         /* 检查是否有未跟踪的文件 */
         Methods.untrackedExist();
         /* 清空工作区 */
@@ -64,10 +66,13 @@ public class Checkout {
         Branch branchToSwitch = Branch.readBranch(name);
 
         Commit commitToSwitch = branchToSwitch.getHEADAsCommit();
-        HashMap<String, String> old = commitToSwitch.getBlobs();
+        Map<String, String> old = commitToSwitch.getBlobs();
         for (String oldFile : old.keySet()) {
-            String branchName = old.get(oldFile);
-            reStoreBlob(join(oldFile), join(Repository.makeObjectDir(branchName)));
+            /* 稀疏检出时只写入范围内的文件 */
+            if (Sparse.includes(oldFile)) {
+                String branchName = old.get(oldFile);
+                reStoreBlob(join(oldFile), join(Repository.makeObjectDir(branchName)));
+            }
         }
 
         Methods.readStagingArea().cleanStagingArea();
@@ -87,7 +92,7 @@ public class Checkout {
         Repository.clean(Repository.CWD);
         Methods.readStagingArea().cleanStagingArea();
         Map<String, String> olds = commit.getBlobs();
-        olds.keySet().forEach(f -> checkoutFile(commit, join(f)));
+        olds.keySet().stream().filter(Sparse::includes).forEach(f -> checkoutFile(commit, join(f)));
         Methods.setHEAD(commit, Methods.readHEADAsBranch());
     }
 
@@ -100,6 +105,6 @@ public class Checkout {
      */
     private static void reStoreBlob(File file, File checkFrom) {
         Blob oldBlob = readObject(checkFrom, Blob.class);
-        writeContents(file, oldBlob.getContent());
+        oldBlob.writeTo(file);
     }
 }
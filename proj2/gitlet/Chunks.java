@@ -0,0 +1,302 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * 大文件的分块存储
+ * <p>
+ * 不小于阈值的文件按内容定义的边界切成块：
+ * 对每个字节更新 gear 滚动哈希，块长度达到 {@value #MIN} 字节后，
+ * 哈希的高 {@value #BITS} 位全为 0 的位置就是块的边界，块最长 {@value #MAX} 字节
+ * <br>
+ * 边界只取决于附近的内容，所以在文件中间插入或修改少量字节只会改变附近的一两个块，
+ * 每个块作为单独的对象按内容寻址，不同版本和不同文件中相同的块只存储一次
+ * <p>
+ * 文件本身的 blob 只记录块的 id 列表（见 {@link Blob}），称为清单，
+ * 所有清单的 id 记录在 .gitlet/manifests 中，gc、fsck 和 fetch/push 通过它找到块
+ * <br>
+ * 阈值默认为 {@value #DEFAULT_THRESHOLD} 字节，可以在 .gitlet/chunk-threshold 中以十进制字节数修改，
+ * 修改后只影响之后写入的文件
+ *
+ * @author Kai Decker
+ */
+public class Chunks {
+
+    /** 默认的分块存储的最小文件大小 */
+    public static final long DEFAULT_THRESHOLD = 1 << 20;
+
+    /* 保存阈值的文件，见 threshold() */
+    private static final File THRESHOLD_FILE = join(Repository.COMMON_DIR, "chunk-threshold");
+    private static long threshold = -1;
+
+    /* 块的最小和最大长度 */
+    private static final int MIN = 64 << 10;
+    private static final int MAX = 1 << 20;
+
+    /* 边界条件的位数，平均块长约为 MIN + 2^BITS 字节 */
+    private static final int BITS = 18;
+    private static final long MASK = ((1L << BITS) - 1) << (64 - BITS);
+
+    /* gear 哈希表，每个字节值对应一个固定的随机数 */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long s = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < GEAR.length; i++) {
+            /* splitmix64 */
+            s += 0x9e3779b97f4a7c15L;
+            long z = s;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** 一个块对象，id 为 sha1("chunk", 数据) */
+    static class Chunk implements Serializable {
+        /* 固定序列化版本，保证对象库中已有的块仍然可以被读取 */
+        private static final long serialVersionUID = -4492612107902378084L;
+
+        private final byte[] data;
+
+        Chunk(byte[] data) {
+            this.data = data;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+    }
+
+    /**
+     * @return 文件 F 是否需要分块存储
+     */
+    public static boolean isLarge(File f) {
+        return f.length() >= threshold();
+    }
+
+    /**
+     * @return 分块存储的最小文件大小，.gitlet/chunk-threshold 不存在或无法解析时为默认值
+     */
+    static synchronized long threshold() {
+        if (threshold < 0) {
+            threshold = DEFAULT_THRESHOLD;
+            if (THRESHOLD_FILE.isFile()) {
+                try {
+                    String value = readContentsAsString(THRESHOLD_FILE).trim();
+                    threshold = Math.max(1, Long.parseLong(value));
+                } catch (NumberFormatException excp) {
+                    /* 使用默认值 */
+                }
+            }
+        }
+        return threshold;
+    }
+
+    /**
+     * 流式地计算文件原始字节的 SHA-1，不把整个文件读入内存
+     * 对于 UTF-8 文本，结果和 {@link Blob#getBlobName(String)} 相同
+     */
+    public static String hash(File f) {
+        long begin = Trace.begin();
+        MessageDigest md = sha1Digest();
+        byte[] buf = new byte[64 << 10];
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Trace.hashed(begin, f.length());
+        return hex(md.digest());
+    }
+
+    /**
+     * 把文件 F 切成块并写入对象库，已经存在的块不会重复写入
+     *
+     * @return 按顺序排列的块 id
+     */
+    public static String[] write(File f) {
+        List<String> ids = new ArrayList<>();
+        ByteArrayOutputStream cur = new ByteArrayOutputStream(MAX);
+        long h = 0;
+        byte[] buf = new byte[64 << 10];
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                /* BUF[start, i] 属于当前的块，块的长度为 cur.size() + i - start + 1 */
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    h = (h << 1) + GEAR[buf[i] & 0xff];
+                    int len = cur.size() + i - start + 1;
+                    if ((len >= MIN && (h & MASK) == 0) || len >= MAX) {
+                        cur.write(buf, start, i - start + 1);
+                        ids.add(store(cur.toByteArray()));
+                        cur.reset();
+                        h = 0;
+                        start = i + 1;
+                    }
+                }
+                cur.write(buf, start, n - start);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (cur.size() > 0) {
+            ids.add(store(cur.toByteArray()));
+        }
+        return ids.toArray(new String[0]);
+    }
+
+    /* 把一个块写入对象库 */
+    private static String store(byte[] data) {
+        String id = sha1("chunk", data);
+        File out = Repository.makeObjectDir(id);
+        if (!out.exists()) {
+            writeObject(out, new Chunk(data));
+        }
+        return id;
+    }
+
+    /**
+     * @return 对象库 OBJECTSDIR 中 id 为 ID 的块的数据
+     */
+    static byte[] read(File objectsDir, String id) {
+        File f = join(objectsDir, id.substring(0, 2), id.substring(2));
+        return readObject(f, Chunk.class).getData();
+    }
+
+    /**
+     * @return 按顺序读取块 IDS 拼接起来的数据的输入流，每次只读取一个块
+     */
+    static InputStream open(String[] ids) {
+        return new InputStream() {
+            private byte[] data = new byte[0];
+            private int pos;
+            private int next;
+
+            @Override
+            public int read() {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                while (pos == data.length) {
+                    if (next == ids.length) {
+                        return -1;
+                    }
+                    data = Chunks.read(Repository.OBJECTS_DIR, ids[next++]);
+                    pos = 0;
+                }
+                int n = Math.min(len, data.length - pos);
+                System.arraycopy(data, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+        };
+    }
+
+    /**
+     * 把块 IDS 按顺序流式地写入 OUT，每次只读取一个块
+     */
+    static void copyTo(String[] ids, OutputStream out) throws IOException {
+        for (String id : ids) {
+            out.write(read(Repository.OBJECTS_DIR, id));
+        }
+    }
+
+    /**
+     * @return 块 IDS 拼接起来的数据的 SHA-1，某个块无法读取时返回 null
+     */
+    static String hash(String[] ids) {
+        MessageDigest md = sha1Digest();
+        try {
+            for (String id : ids) {
+                md.update(read(Repository.OBJECTS_DIR, id));
+            }
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+        return hex(md.digest());
+    }
+
+    /**
+     * 在仓库 GITLETDIR 的清单列表中记录清单 ID
+     */
+    static void register(File gitletDir, String id) {
+        File f = join(gitletDir, "manifests");
+        String ms = f.isFile() ? readContentsAsString(f) : "";
+        if (!manifests(ms).contains(id)) {
+            writeContents(f, ms + id);
+        }
+    }
+
+    /**
+     * @return 仓库 GITLETDIR 中所有清单的 id
+     */
+    static Set<String> manifests(File gitletDir) {
+        File f = join(gitletDir, "manifests");
+        return manifests(f.isFile() ? readContentsAsString(f) : "");
+    }
+
+    /* 每 40 个字符为一个清单 id */
+    private static Set<String> manifests(String ms) {
+        Set<String> ret = new HashSet<>();
+        for (int i = 0; i + UID_LENGTH <= ms.length(); i += UID_LENGTH) {
+            ret.add(ms.substring(i, i + UID_LENGTH));
+        }
+        return ret;
+    }
+
+    /**
+     * 从清单列表中移除对象已经被删除的清单
+     */
+    static void prune(File gitletDir) {
+        File f = join(gitletDir, "manifests");
+        if (!f.isFile()) {
+            return;
+        }
+        StringBuilder kept = new StringBuilder();
+        for (String id : manifests(gitletDir)) {
+            if (Repository.getObjectFile(id).exists()) {
+                kept.append(id);
+            }
+        }
+        writeContents(f, kept.toString());
+    }
+
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        Formatter result = new Formatter();
+        for (byte b : digest) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+}
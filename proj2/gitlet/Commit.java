@@ -1,7 +1,11 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -15,6 +19,9 @@ import static gitlet.Utils.*;
  */
 public class Commit implements Serializable {
 
+    /* 固定序列化版本，保证旧仓库中的提交仍然可以被读取 */
+    private static final long serialVersionUID = -8500486557221579303L;
+
     /* 提交信息 */
     private String log;
 
@@ -37,6 +44,9 @@ public class Commit implements Serializable {
     /* 本次提交的 40 位 SHA-1 */
     private String uid;
 
+    /* verify 上一次匹配到的时区 */
+    private static volatile String lastZone = TimeZone.getDefault().getID();
+
     /**
      * 使用指定的提交信息和父提交 uid 实例化一个提交对象
      * 第一条提交信息为 "initial commit" 的提交没有父提交
@@ -79,15 +89,22 @@ public class Commit implements Serializable {
      */
     public static Set<Commit> findAll() {
         Set<Commit> commits = new HashSet<>();
+        findAllIds().forEach(id -> commits.add(Methods.toCommit(id)));
+        return commits;
+    }
+
+    /**
+     * @return 所有曾经建立的提交的 uid，按建立的顺序排列
+     */
+    public static List<String> findAllIds() {
         /* 读取文件内容 */
         String cs = readContentsAsString(Repository.COMMITS);
-        while (!cs.isEmpty()) {
-            /* 截取字符串的前 40 个字符，即一个完整的 SHA-1 哈希值 */
-            commits.add(Methods.toCommit(cs.substring(0, 40)));
-            /* 继续处理剩下的部分 */
-            cs = cs.substring(40);
+        List<String> ids = new ArrayList<>(cs.length() / UID_LENGTH);
+        /* 每 40 个字符为一个完整的 SHA-1 哈希值 */
+        for (int i = 0; i + UID_LENGTH <= cs.length(); i += UID_LENGTH) {
+            ids.add(cs.substring(i, i + UID_LENGTH));
         }
-        return commits;
+        return ids;
     }
 
     private void instantiateCommit(String message, String first, String second) {
@@ -109,7 +126,7 @@ public class Commit implements Serializable {
     public void makeCommit() {
         /* 读取父提交的 blobs ，即继承父提交的快照 */
         if (this.parent != null) {
-            this.blobs = this.getParentAsCommit().blobs;
+            this.blobs = new HashMap<>(this.getParentAsCommit().blobs);
         }
         /* 读取暂存区 index */
         Index idx = Methods.readStagingArea();
@@ -131,7 +148,7 @@ public class Commit implements Serializable {
         /* 清空暂存区 index */
         idx.cleanStagingArea();
         /* 将提交对象序列化写入 */
-        writeObject(out, this);
+        Utils.writeObject(out, this);
         /* 移动 HEAD 指针指向这个提交，更新分支 branch 引用 */
         Methods.setHEAD(this, Methods.readHEADAsBranch());
         /* 将其 40 位 uid 写入 COMMITS */
@@ -176,6 +193,36 @@ public class Commit implements Serializable {
         this.uid = sha1(this.parent + this.date + this.log);
     }
 
+    /**
+     * 提交的 uid 只由父提交、时间和提交信息计算，见 {@link #setUid()}，
+     * 所以这里无法发现快照映射或者第二父提交被修改过
+     *
+     * @return 提交的 uid 是否为 ID，并且和父提交、时间和提交信息一致
+     */
+    public boolean verify(String id) {
+        if (!id.equals(uid)) {
+            return false;
+        }
+        if (sha1(parent + date + log).equals(id)) {
+            return true;
+        }
+        /* uid 使用写入提交时所在时区的日期字符串，在其他时区读取时逐个尝试，先试上一次匹配的时区 */
+        SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+        Set<String> tried = new HashSet<>();
+        List<String> zones = new ArrayList<>();
+        zones.add(lastZone);
+        zones.addAll(Arrays.asList(TimeZone.getAvailableIDs()));
+        for (String zone : zones) {
+            format.setTimeZone(TimeZone.getTimeZone(zone));
+            String d = format.format(date);
+            if (tried.add(d) && sha1(parent + d + log).equals(id)) {
+                lastZone = zone;
+                return true;
+            }
+        }
+        return false;
+    }
+
     public String getParentAsString() {
         return parent;
     }
@@ -202,10 +249,19 @@ public class Commit implements Serializable {
     }
 
     /**
+     * 提交对象会被 Methods.toCommit 缓存并共享，所以返回不可修改的视图
+     *
      * @return 提交的快照映射 blobs
      */
-    public HashMap<String, String> getBlobs() {
-        return blobs;
+    public Map<String, String> getBlobs() {
+        return Collections.unmodifiableMap(blobs);
+    }
+
+    /**
+     * 替换快照映射，只用于 migrate 改写旧仓库中的提交，提交的 uid 不变
+     */
+    void setBlobs(Map<String, String> blobs) {
+        this.blobs = new HashMap<>(blobs);
     }
 
     /**
@@ -217,6 +273,45 @@ public class Commit implements Serializable {
         return blobs.get(f.getAbsolutePath());
     }
 
+    /**
+     * 返回这个提交的一个只在内存中使用的副本，快照中的路径 FROM 被移动到 TO
+     * 合并时用于把重命名前后的路径对齐，副本不会被写入对象库
+     */
+    Commit withRename(String from, String to) {
+        Commit ret = new Commit(log, parent, secondParent);
+        ret.date = date;
+        ret.uid = uid;
+        ret.blobs = new HashMap<>(blobs);
+        String blob = ret.blobs.remove(from);
+        if (blob != null) {
+            ret.blobs.put(to, blob);
+        }
+        return ret;
+    }
+
+    /*
+     * 对象库中的快照映射使用主工作区中的路径，在附加的工作区中读写提交时转换路径，
+     * 所以同一个提交在每个工作区中都指向该工作区自己的文件（见 Worktree）
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        HashMap<String, String> own = blobs;
+        blobs = Worktree.toCommon(own);
+        try {
+            out.defaultWriteObject();
+        } finally {
+            blobs = own;
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        blobs = Worktree.fromCommon(blobs);
+    }
+
+    public String getSecondParentAsString() {
+        return secondParent;
+    }
+
     public Commit getSecondParentAsCommit() {
         return Methods.toCommit(this.secondParent);
     }
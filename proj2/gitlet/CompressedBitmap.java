@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 压缩存储的位图，按 roaring bitmap 的方式组织
+ * <p>
+ * 下标按高 16 位分成若干块，每块保存低 16 位：
+ * 块中的元素不超过 {@value #ARRAY_MAX} 个时使用有序的 char 数组，
+ * 否则使用 65536 位的普通位图，所以稀疏和稠密的部分都只占很少的空间
+ * <br>
+ * 只用于保存到磁盘，计算时转换为 {@link BitSet}
+ *
+ * @author Kai Decker
+ */
+public class CompressedBitmap implements Serializable {
+
+    /* 固定序列化版本，见 BitmapIndex */
+    private static final long serialVersionUID = 595912915294141713L;
+
+    /* 使用数组保存的块的最大元素个数，超过后位图更省空间 */
+    private static final int ARRAY_MAX = 4096;
+    private static final int BLOCK_BITS = 1 << 16;
+
+    /* 每块的高 16 位，递增 */
+    private final char[] keys;
+    /* 每块的数组或位图，二者恰有一个不为 null */
+    private final char[][] arrays;
+    private final long[][] bitmaps;
+
+    private CompressedBitmap(char[] keys, char[][] arrays, long[][] bitmaps) {
+        this.keys = keys;
+        this.arrays = arrays;
+        this.bitmaps = bitmaps;
+    }
+
+    /**
+     * 压缩位图 BITS
+     */
+    public static CompressedBitmap of(BitSet bits) {
+        List<Character> keys = new ArrayList<>();
+        List<char[]> arrays = new ArrayList<>();
+        List<long[]> bitmaps = new ArrayList<>();
+        int i = bits.nextSetBit(0);
+        while (i >= 0) {
+            int key = i >>> 16;
+            int end = (key + 1) * BLOCK_BITS;
+            BitSet block = bits.get(key * BLOCK_BITS, end);
+            int card = block.cardinality();
+            keys.add((char) key);
+            if (card <= ARRAY_MAX) {
+                char[] a = new char[card];
+                int n = 0;
+                for (int j = block.nextSetBit(0); j >= 0; j = block.nextSetBit(j + 1)) {
+                    a[n++] = (char) j;
+                }
+                arrays.add(a);
+                bitmaps.add(null);
+            } else {
+                arrays.add(null);
+                bitmaps.add(block.toLongArray());
+            }
+            i = bits.nextSetBit(end);
+        }
+        char[] k = new char[keys.size()];
+        for (int j = 0; j < k.length; j++) {
+            k[j] = keys.get(j);
+        }
+        return new CompressedBitmap(k, arrays.toArray(new char[0][]),
+                bitmaps.toArray(new long[0][]));
+    }
+
+    /**
+     * 把这个位图中的所有位并入 TARGET
+     */
+    public void orInto(BitSet target) {
+        for (int b = 0; b < keys.length; b++) {
+            int base = keys[b] * BLOCK_BITS;
+            if (arrays[b] != null) {
+                for (char c : arrays[b]) {
+                    target.set(base + c);
+                }
+            } else {
+                BitSet block = BitSet.valueOf(bitmaps[b]);
+                for (int j = block.nextSetBit(0); j >= 0; j = block.nextSetBit(j + 1)) {
+                    target.set(base + j);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 解压得到的位图
+     */
+    public BitSet toBitSet() {
+        BitSet ret = new BitSet();
+        orInto(ret);
+        return ret;
+    }
+}
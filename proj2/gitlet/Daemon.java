@@ -0,0 +1,264 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.join;
+
+/**
+ * 常驻的 gitlet 后台进程，用于分摊每条命令的 JVM 启动和类加载开销
+ * 使用命令 'daemon start [--fsmonitor]' 在仓库根目录启动（一般在后台运行），'daemon stop' 停止
+ * <p>
+ * 后台进程运行时，java gitlet.Main 会把命令行参数通过 .gitlet/daemon.sock
+ * 转发给后台进程执行，并把后台进程的标准输出和标准错误原样输出
+ * java gitlet.Main 仍然需要启动一个 JVM，真正省下启动开销的是 bin/gitlet，
+ * 它只按下面的协议转发参数，没有后台进程时才启动 java gitlet.Main
+ * <p>
+ * 后台进程一次只执行一条命令，提交对象会一直缓存在内存中，
+ * HEAD、暂存区和远程仓库的配置也会跨命令缓存，见 {@link #cached}
+ * <p>
+ * 协议：
+ * <br>请求：UTF 字符串客户端的 GITLET_TRACE 环境变量（没有设置时为空串），
+ * int 参数个数，之后每个参数一个 UTF 字符串
+ * <br>响应：若干帧 [byte 通道][int 长度][字节]，通道 1 为标准输出，2 为标准错误，
+ * 最后以单独的通道 0 结束
+ *
+ * @author Kai Decker
+ */
+public class Daemon {
+
+    /** 后台进程监听的 Unix domain socket */
+    public static final File SOCKET = join(GITLET_DIR, "daemon.sock");
+
+    private static final int END = 0;
+    private static final int STDOUT = 1;
+    private static final int STDERR = 2;
+
+    /* 当前进程是否是后台进程 */
+    private static volatile boolean running;
+
+    /* 跨命令缓存的仓库状态，KEY 为文件，见 cached */
+    private static final Map<File, State> STATE = new ConcurrentHashMap<>();
+
+    /** 一个缓存的文件读出的对象，文件的 inode、修改时间和大小都没有变化时仍然有效 */
+    private static class State {
+        private final Object fileKey;
+        private final FileTime mtime;
+        private final long size;
+        private final Object value;
+
+        State(BasicFileAttributes attrs, Object value) {
+            this.fileKey = attrs.fileKey();
+            this.mtime = attrs.lastModifiedTime();
+            this.size = attrs.size();
+            this.value = value;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return Objects.equals(fileKey, attrs.fileKey())
+                    && mtime.equals(attrs.lastModifiedTime()) && size == attrs.size();
+        }
+    }
+
+    /**
+     * @return 当前进程是后台进程时返回 true
+     */
+    public static boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 在当前仓库启动后台进程并阻塞，直到收到 'daemon stop'
+     *
+     * @param fsmonitor 是否同时开启工作区监视器
+     */
+    public static void start(boolean fsmonitor) {
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(SOCKET.toPath());
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            running = true;
+            if (fsmonitor) {
+                FsMonitor.start();
+            }
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    serve(client);
+                } catch (IOException excp) {
+                    /* 客户端中途断开，继续等待下一个连接 */
+                }
+            }
+        } catch (IOException excp) {
+            Methods.exit("Cannot start the daemon: " + excp.getMessage());
+        } finally {
+            if (FsMonitor.isActive()) {
+                FsMonitor.stop();
+            }
+            SOCKET.delete();
+        }
+    }
+
+    /**
+     * 读取文件 F 中的仓库状态（HEAD、暂存区或者远程仓库的配置），
+     * 后台进程中跨命令缓存读出的对象，文件被替换、修改或者由本进程写入之后重新读取
+     * 调用者可能会修改返回的对象，所以返回的是 COPY 得到的副本
+     * 不是后台进程时直接读取
+     */
+    static <T> T cached(File f, Class<T> type, Function<File, T> read, UnaryOperator<T> copy) {
+        if (!running) {
+            return read.apply(f);
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            STATE.remove(f);
+            return read.apply(f);
+        }
+        State s = STATE.get(f);
+        if (s == null || !s.matches(attrs) || !type.isInstance(s.value)) {
+            s = new State(attrs, read.apply(f));
+            STATE.put(f, s);
+        }
+        return copy.apply(type.cast(s.value));
+    }
+
+    /**
+     * 本进程写入了文件 F，之后需要重新读取
+     * 修改时间的精度有限，很快地写入相同大小的内容时可能不变，所以不能只依赖 cached 的检查
+     */
+    static void written(File f) {
+        if (running) {
+            STATE.remove(f);
+        }
+    }
+
+    /* 让后台进程在执行完当前命令后退出 */
+    public static void stop() {
+        running = false;
+    }
+
+    /**
+     * 如果当前仓库有后台进程在运行，就把命令转发给它执行
+     *
+     * @return 命令已经由后台进程执行完毕时返回 true
+     */
+    public static boolean forward(String[] args) {
+        if (running || !SOCKET.exists()
+                || (args.length >= 2 && args[0].equals("daemon") && args[1].equals("start"))) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            /* 后台进程已经不在了，在本进程中执行 */
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            String trace = System.getenv("GITLET_TRACE");
+            out.writeUTF(trace == null ? "" : trace);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            for (int c = in.readByte(); c != END; c = in.readByte()) {
+                byte[] buf = new byte[in.readInt()];
+                in.readFully(buf);
+                (c == STDOUT ? System.out : System.err).write(buf);
+            }
+            System.out.flush();
+            System.err.flush();
+        } catch (IOException excp) {
+            System.err.println("Lost connection to the daemon: " + excp.getMessage());
+        }
+        return true;
+    }
+
+    /* 执行一个客户端的命令，把输出按帧写回客户端 */
+    private static void serve(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String trace = in.readUTF();
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream o = new PrintStream(new BufferedOutputStream(new Frames(out, STDOUT)));
+        PrintStream e = new PrintStream(new BufferedOutputStream(new Frames(out, STDERR)));
+        System.setOut(o);
+        System.setErr(e);
+        try {
+            FsMonitor.refresh();
+            Main.run(Trace.start(args, trace));
+        } catch (GitletException excp) {
+            /* Methods.exit 在后台进程中抛出异常代替 System.exit，错误信息已经输出 */
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+        } finally {
+            Trace.stop();
+            o.flush();
+            e.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+            out.writeByte(END);
+            out.flush();
+        }
+    }
+
+    /** 把写入的字节按帧写入某个通道 */
+    private static class Frames extends OutputStream {
+        private final DataOutputStream out;
+        private final int channel;
+
+        Frames(DataOutputStream out, int channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.writeByte(channel);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
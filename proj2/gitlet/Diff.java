@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按行比较两个文件，即 Myers 的 O(ND) 差分算法
+ * <p>
+ * 先去掉相同的开头和结尾，再对中间部分求最短编辑脚本，
+ * 中间部分的每一行先被映射为整数，比较时不需要比较字符串
+ * <br>
+ * 编辑距离超过 {@value #MAX_EDITS} 时不再求最短脚本，
+ * 改为按顺序贪心地匹配相同的行，保证时间和内存都有上界
+ *
+ * @author Kai Decker
+ */
+public class Diff {
+
+    /* 求最短编辑脚本时允许的最大编辑距离 */
+    private static final int MAX_EDITS = 2000;
+
+    /**
+     * 把内容按行切开，末尾的换行符不会产生一个空行
+     */
+    public static String[] lines(String content) {
+        if (content.isEmpty()) {
+            return new String[0];
+        }
+        String[] ret = content.split("\n", -1);
+        return content.endsWith("\n") ? Arrays.copyOf(ret, ret.length - 1) : ret;
+    }
+
+    /**
+     * 比较 A 和 B 两个版本的行
+     *
+     * @return 长度为 B.length 的数组，B 的第 j 行在 A 中对应第 i 行时为 i，新增的行为 -1
+     */
+    public static int[] match(String[] a, String[] b) {
+        int[] ret = new int[b.length];
+        Arrays.fill(ret, -1);
+        int lo = 0;
+        while (lo < a.length && lo < b.length && a[lo].equals(b[lo])) {
+            ret[lo] = lo;
+            lo++;
+        }
+        int hiA = a.length;
+        int hiB = b.length;
+        while (hiA > lo && hiB > lo && a[hiA - 1].equals(b[hiB - 1])) {
+            hiA--;
+            hiB--;
+            ret[hiB] = hiA;
+        }
+        if (lo == hiA || lo == hiB) {
+            return ret;
+        }
+        /* 只有中间不同的部分需要映射为整数 */
+        Map<String, Integer> ids = new HashMap<>();
+        int[] x = intern(a, lo, hiA, ids);
+        int[] y = intern(b, lo, hiB, ids);
+        int[] mid = new int[y.length];
+        Arrays.fill(mid, -1);
+        if (!myers(x, 0, x.length, y, 0, y.length, mid)) {
+            greedy(x, 0, x.length, y, 0, y.length, mid);
+        }
+        for (int j = 0; j < mid.length; j++) {
+            if (mid[j] >= 0) {
+                ret[lo + j] = lo + mid[j];
+            }
+        }
+        return ret;
+    }
+
+    /* 把每一行映射为整数，相同的行得到相同的整数 */
+    private static int[] intern(String[] lines, int lo, int hi, Map<String, Integer> ids) {
+        int[] ret = new int[hi - lo];
+        for (int i = lo; i < hi; i++) {
+            ret[i - lo] = ids.computeIfAbsent(lines[i], k -> ids.size());
+        }
+        return ret;
+    }
+
+    /**
+     * 对 A[aLo, aHi) 和 B[bLo, bHi) 求最短编辑脚本，把匹配的行写入 RET
+     *
+     * @return 编辑距离超过上限时返回 false，此时 RET 不会被修改
+     */
+    private static boolean myers(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                 int[] ret) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int max = Math.min(n + m, MAX_EDITS);
+        /* v[k + off] 为第 k 条对角线上走得最远的 x */
+        int off = max + 1;
+        int[] v = new int[2 * off + 1];
+        /* trace.get(d) 保存第 d 步之前的 v[-d..d] */
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            trace.add(Arrays.copyOfRange(v, off - d, off + d + 1));
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[off + k - 1] < v[off + k + 1]))
+                        ? v[off + k + 1] : v[off + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                v[off + k] = x;
+                if (x >= n && y >= m) {
+                    backtrack(trace, d, n, m, aLo, bLo, ret);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /* 从终点沿着保存的 v 往回走，记录对角线（相同的行） */
+    private static void backtrack(List<int[]> trace, int end, int n, int m, int aLo, int bLo,
+                                  int[] ret) {
+        int x = n;
+        int y = m;
+        for (int d = end; d >= 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevX;
+            int prevY;
+            if (d == 0) {
+                prevX = 0;
+                prevY = 0;
+            } else {
+                /* v 的下标 i 对应对角线 i - d */
+                boolean down = k == -d || (k != d && v[k - 1 + d] < v[k + 1 + d]);
+                int prevK = down ? k + 1 : k - 1;
+                prevX = v[prevK + d];
+                prevY = prevX - prevK;
+            }
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                ret[bLo + y] = aLo + x;
+            }
+            x = prevX;
+            y = prevY;
+        }
+    }
+
+    /* 按顺序贪心地匹配：B 的每一行匹配 A 中上一次匹配之后第一个相同的行 */
+    private static void greedy(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi, int[] ret) {
+        Map<Integer, List<Integer>> positions = new HashMap<>();
+        for (int i = aLo; i < aHi; i++) {
+            positions.computeIfAbsent(a[i], k -> new ArrayList<>()).add(i);
+        }
+        int last = aLo - 1;
+        for (int j = bLo; j < bHi; j++) {
+            List<Integer> ps = positions.get(b[j]);
+            if (ps == null) {
+                continue;
+            }
+            int p = Collections.binarySearch(ps, last + 1);
+            p = p < 0 ? -p - 1 : p;
+            if (p < ps.size()) {
+                last = ps.get(p);
+                ret[j] = last;
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static gitlet.Repository.CWD;
+import static gitlet.Utils.join;
+import static gitlet.Utils.plainFilenamesIn;
+
+/**
+ * 基于 WatchService 的工作区监视器，只在后台进程中使用
+ * 使用命令 'daemon start --fsmonitor' 开启
+ * <p>
+ * 监视器在内存中维护工作区的文件名集合以及每个文件内容的 blob id，
+ * 只有自上次查询以来发生变化的文件才会被重新检查和哈希，
+ * 所以 status 和未跟踪文件的检查只需要 O(变化的文件数) 的 I/O
+ * <p>
+ * 文件事件是异步到达的，每条命令开始前会在工作区创建并删除一个 cookie 文件，
+ * 等到它的事件到达，就说明在此之前的所有修改都已经被记录
+ * 没有开启监视器时，所有方法都直接访问文件系统
+ *
+ * @author Kai Decker
+ */
+public class FsMonitor {
+
+    /* cookie 文件名的前缀，这些文件不会出现在工作区文件集合中 */
+    private static final String COOKIE_PREFIX = ".gitlet-fsmonitor-";
+
+    /* 等待 cookie 事件的最长时间，超时就重新扫描整个工作区 */
+    private static final long SYNC_TIMEOUT_MS = 1000;
+
+    private static volatile boolean active;
+
+    private static WatchService watcher;
+
+    /* 工作区中的文件名 */
+    private static final Set<String> FILES = ConcurrentHashMap.newKeySet();
+
+    /* 自上次查询以来发生变化的文件名 */
+    private static final Set<String> DIRTY = ConcurrentHashMap.newKeySet();
+
+    /* 自上次 status 以来发生变化的文件名，见 takeChanged */
+    private static final Set<String> CHANGED = ConcurrentHashMap.newKeySet();
+
+    /* 文件名到其当前内容的 blob id 的映射 */
+    private static final Map<String, String> HASHES = new ConcurrentHashMap<>();
+
+    /* 已经收到事件的 cookie 文件名 */
+    private static final Set<String> COOKIES = new HashSet<>();
+
+    /* 事件丢失时需要重新扫描整个工作区 */
+    private static volatile boolean overflow = true;
+
+    /* 事件丢失时 status 也需要重新检查所有文件 */
+    private static volatile boolean rescan = true;
+
+    private static int cookieCount;
+
+    /**
+     * @return 监视器已经开启时返回 true
+     */
+    public static boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 开始监视工作区，事件由一个守护线程处理
+     */
+    public static void start() throws IOException {
+        watcher = FileSystems.getDefault().newWatchService();
+        CWD.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread t = new Thread(FsMonitor::watch, "gitlet-fsmonitor");
+        t.setDaemon(true);
+        t.start();
+        active = true;
+    }
+
+    /* 停止监视 */
+    public static void stop() {
+        active = false;
+        try {
+            watcher.close();
+        } catch (IOException excp) {
+            /* 已经关闭 */
+        }
+    }
+
+    /* 处理文件事件，记录发生变化的文件名 */
+    private static void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> e : key.pollEvents()) {
+                    if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        lost();
+                        continue;
+                    }
+                    String name = e.context().toString();
+                    if (name.startsWith(COOKIE_PREFIX)) {
+                        synchronized (COOKIES) {
+                            COOKIES.add(name);
+                            COOKIES.notifyAll();
+                        }
+                    } else if (isWorkingFile(name)) {
+                        changed(name);
+                    }
+                }
+                if (!key.reset()) {
+                    lost();
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException excp) {
+            /* 监视器被关闭 */
+        }
+    }
+
+    /**
+     * 在每条命令开始前调用，保证之前发生的所有修改都已经被记录
+     */
+    public static void refresh() {
+        if (!active) {
+            return;
+        }
+        String cookie = COOKIE_PREFIX + cookieCount++;
+        Path p = join(CWD, cookie).toPath();
+        try {
+            Files.createFile(p);
+            Files.delete(p);
+            long deadline = System.currentTimeMillis() + SYNC_TIMEOUT_MS;
+            synchronized (COOKIES) {
+                while (!COOKIES.remove(cookie)) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        lost();
+                        break;
+                    }
+                    COOKIES.wait(left);
+                }
+            }
+        } catch (IOException | InterruptedException excp) {
+            lost();
+        }
+    }
+
+    /**
+     * 记录 gitlet 自己对工作区文件的修改
+     * 这样同一条命令之后的查询不需要等待文件事件
+     */
+    static void touched(File file) {
+        if (active && CWD.equals(file.getAbsoluteFile().getParentFile())) {
+            changed(file.getName());
+        }
+    }
+
+    /* 记录文件 NAME 发生了变化 */
+    private static void changed(String name) {
+        DIRTY.add(name);
+        CHANGED.add(name);
+    }
+
+    /* 有事件丢失，之后的查询需要重新扫描整个工作区 */
+    private static void lost() {
+        overflow = true;
+        rescan = true;
+    }
+
+    /**
+     * 取出自上一次调用以来可能发生变化的工作区文件名，用于 status 只重新检查这些文件
+     * 之后再发生的变化会在下一次调用时返回
+     *
+     * @return 发生变化的文件名，监视器没有开启、第一次调用或者有事件丢失时返回 null，
+     * 表示需要检查所有文件
+     */
+    static Set<String> takeChanged() {
+        if (!active) {
+            return null;
+        }
+        Set<String> ret = new HashSet<>(CHANGED);
+        CHANGED.removeAll(ret);
+        if (rescan) {
+            rescan = false;
+            return null;
+        }
+        return ret;
+    }
+
+    /* 重新检查发生变化的文件，或者在事件丢失后重新扫描整个工作区 */
+    private static void applyChanges() {
+        if (overflow) {
+            overflow = false;
+            DIRTY.clear();
+            HASHES.clear();
+            FILES.clear();
+            List<String> names = plainFilenamesIn(CWD);
+            if (names != null) {
+                names.stream().filter(FsMonitor::isWorkingFile).forEach(FILES::add);
+            }
+            return;
+        }
+        for (String name : new ArrayList<>(DIRTY)) {
+            DIRTY.remove(name);
+            HASHES.remove(name);
+            if (join(CWD, name).isFile()) {
+                FILES.add(name);
+            } else {
+                FILES.remove(name);
+            }
+        }
+    }
+
+    /**
+     * @return 名字为 NAME 的文件属于工作区时返回 true
+     * cookie 文件和附加的工作区中的 .gitlet 文件（见 Worktree）不属于工作区
+     */
+    static boolean isWorkingFile(String name) {
+        return !name.startsWith(COOKIE_PREFIX) && !name.equals(".gitlet");
+    }
+
+    /**
+     * @return 工作区中所有普通文件的名字，按字典序排列
+     */
+    public static List<String> workingFiles() {
+        if (!active) {
+            List<String> names = plainFilenamesIn(CWD);
+            return names == null ? null
+                    : names.stream().filter(FsMonitor::isWorkingFile).collect(Collectors.toList());
+        }
+        applyChanges();
+        List<String> names = new ArrayList<>(FILES);
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @return 文件 F 存在时返回 true
+     */
+    public static boolean exists(File f) {
+        if (!active || !CWD.equals(f.getAbsoluteFile().getParentFile())) {
+            return f.exists();
+        }
+        applyChanges();
+        return FILES.contains(f.getName());
+    }
+
+    /**
+     * @return 文件 F 当前内容的 blob id，未变化的文件不会被重新哈希
+     */
+    public static String blobName(File f) {
+        if (!active || !CWD.equals(f.getAbsoluteFile().getParentFile())) {
+            return Blob.getBlobName(f);
+        }
+        applyChanges();
+        return HASHES.computeIfAbsent(f.getName(), n -> Blob.getBlobName(f));
+    }
+}
@@ -0,0 +1,188 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import static gitlet.Repository.getObjectFile;
+import static gitlet.Repository.objectIds;
+import static gitlet.Utils.readObject;
+
+/**
+ * 表示 gitlet-fsck 命令，即检查对象库的完整性
+ * <p>
+ * 第一步在 fork-join 线程池上并行地读取每一个对象：
+ * blob 的内容必须哈希到它的 id，提交对象记录的 uid 必须等于它的 id，
+ * 并且由父提交、时间和提交信息重新计算的哈希也要一致（快照映射和第二父提交不在哈希中），
+ * 大文件的块必须哈希到它的 id，清单中所有块拼接起来的内容必须哈希到清单的 id
+ * <br>
+ * 第二步检查连通性：每个提交的父提交和快照中的 blob 都必须存在
+ * <br>
+ * 最后报告损坏、缺失和不可达（dangling）的对象，以及检查的吞吐量
+ *
+ * @author Kai Decker
+ */
+public class Fsck {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte BLOB = 1;
+    private static final byte COMMIT = 2;
+    private static final byte CORRUPT = 3;
+    private static final byte CHUNK = 5;
+
+    /* 内容哈希和 id 不一致的 blob，可能是迁移前按 "内容 + 文件名" 寻址的 blob */
+    private static final byte MISMATCH = 4;
+
+    /**
+     * 检查整个对象库并打印发现的问题
+     *
+     * @return 没有发现损坏或缺失的对象时返回 true
+     */
+    public static boolean fsck() {
+        long start = System.nanoTime();
+        List<String> ids = objectIds();
+        byte[] types = new byte[ids.size()];
+        Object[] objects = new Object[ids.size()];
+        LongAdder bytes = new LongAdder();
+        IntStream.range(0, ids.size()).parallel().forEach(i -> {
+            File f = getObjectFile(ids.get(i));
+            bytes.add(f.length());
+            Object obj = read(f);
+            types[i] = check(ids.get(i), obj);
+            /* 只保留连通性检查需要的对象，避免把所有 blob 的内容留在内存中 */
+            if (types[i] == COMMIT || types[i] == MISMATCH
+                    || (types[i] == BLOB && ((Blob) obj).getChunks() != null)) {
+                objects[i] = obj;
+            }
+        });
+
+        List<String> problems = new ArrayList<>();
+        int legacy = checkConnectivity(ids, types, objects, problems);
+        for (int i = 0; i < ids.size(); i++) {
+            if (types[i] == CORRUPT || types[i] == MISMATCH) {
+                problems.add("corrupt " + ids.get(i));
+            }
+        }
+
+        List<String> dangling = new ArrayList<>();
+        try {
+            ObjectBitmap reachable = new ObjectBitmap(ids);
+            GarbageCollect.markReachable(reachable);
+            for (int i = 0; i < ids.size(); i++) {
+                if (!reachable.isMarked(i)
+                        && (types[i] == BLOB || types[i] == COMMIT || types[i] == CHUNK)) {
+                    dangling.add("dangling " + (types[i] == BLOB ? "blob "
+                            : types[i] == CHUNK ? "chunk " : "commit ") + ids.get(i));
+                }
+            }
+        } catch (IllegalArgumentException excp) {
+            /* 可达的提交已经损坏，无法判断哪些对象不可达 */
+            dangling.add("Skipped the dangling object check: a reachable commit is unreadable.");
+        }
+
+        problems.forEach(System.out::println);
+        dangling.forEach(System.out::println);
+        if (legacy > 0) {
+            System.out.println(legacy + " blobs use the old name-dependent address;"
+                    + " run 'migrate' to convert them.");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double mb = bytes.sum() / (1024.0 * 1024.0);
+        System.out.printf(Locale.ROOT, "Checked %d objects (%.1f MB) in %.2f s, %.1f MB/s.%n",
+                ids.size(), mb, seconds, seconds > 0 ? mb / seconds : 0);
+        return problems.isEmpty();
+    }
+
+    /* 反序列化一个对象，失败时返回 null */
+    private static Object read(File f) {
+        try {
+            return readObject(f, Serializable.class);
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /* 检查对象 OBJ 是否和它的 id 一致，返回对象的类别 */
+    private static byte check(String id, Object obj) {
+        if (obj instanceof Blob) {
+            Blob b = (Blob) obj;
+            if (b.getChunks() != null) {
+                /* 块缺失或损坏会在其他检查中报告 */
+                return b.verify(id) ? BLOB : CORRUPT;
+            }
+            return b.verify(id) ? BLOB : MISMATCH;
+        } else if (obj instanceof Chunks.Chunk) {
+            return Utils.sha1("chunk", ((Chunks.Chunk) obj).getData()).equals(id) ? CHUNK : CORRUPT;
+        } else if (obj instanceof Commit) {
+            return ((Commit) obj).verify(id) ? COMMIT : CORRUPT;
+        } else if (obj == null) {
+            return CORRUPT;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * 检查每个提交的父提交和 blob、每个清单的块是否存在，把问题加入 PROBLEMS
+     * 被提交按旧格式（内容 + 文件名）正确引用的 blob 不算损坏
+     *
+     * @return 旧格式 blob 的个数
+     */
+    private static int checkConnectivity(List<String> ids, byte[] types, Object[] objects,
+                                         List<String> problems) {
+        ObjectBitmap legacy = new ObjectBitmap(ids);
+        Set<String> shallows = Shallow.read();
+        for (int i = 0; i < ids.size(); i++) {
+            /* 只有分块存储的 blob 有清单，旧格式的 blob 也可能在下面被改为 BLOB */
+            String[] chunks = types[i] == BLOB && objects[i] != null
+                    ? ((Blob) objects[i]).getChunks() : null;
+            if (chunks != null) {
+                for (String chunk : chunks) {
+                    if (Collections.binarySearch(ids, chunk) < 0) {
+                        problems.add("missing chunk " + chunk + " (in blob " + ids.get(i) + ")");
+                    }
+                }
+            }
+            if (types[i] != COMMIT) {
+                continue;
+            }
+            Commit c = (Commit) objects[i];
+            /* 浅克隆的边界提交的父提交本来就不在本地 */
+            boolean shallow = shallows.contains(ids.get(i));
+            for (String parent : new String[] {c.getParentAsString(), c.getSecondParentAsString()}) {
+                if (parent != null && !parent.isEmpty() && !shallow
+                        && Collections.binarySearch(ids, parent) < 0) {
+                    problems.add("missing commit " + parent + " (parent of " + ids.get(i) + ")");
+                }
+            }
+            for (Map.Entry<String, String> e : c.getBlobs().entrySet()) {
+                String blob = e.getValue();
+                int j = Collections.binarySearch(ids, blob);
+                if (j < 0) {
+                    problems.add("missing blob " + blob + " (in commit " + ids.get(i) + ")");
+                } else if (types[j] == MISMATCH && ((Blob) objects[j]).getChunks() == null) {
+                    /* 只有普通的 blob 可能是旧格式，分块存储的文件不需要读出内容 */
+                    String content = ((Blob) objects[j]).getContent();
+                    String name = new File(e.getKey()).getName();
+                    if (Utils.sha1(content + name).equals(blob)) {
+                        types[j] = BLOB;
+                        legacy.mark(blob);
+                    }
+                }
+            }
+        }
+        int count = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (legacy.isMarked(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
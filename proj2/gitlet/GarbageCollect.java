@@ -0,0 +1,152 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * 表示 gitlet-gc 命令，即删除对象库中不可达的对象
+ * <p>
+ * 标记阶段：从所有分支（包括远程跟踪分支）、每个工作区的 HEAD 和暂存区出发，
+ * 每个根提交在线程池中并行遍历提交图，在位图中标记所有可达的提交和 blob，
+ * 以及可达的大文件清单中的块
+ * <br>
+ * 清除之后重建可达性位图索引（见 {@link BitmapIndex}），之后的 gc、push 和 fetch 都会使用它
+ * <br>
+ * 清除阶段：删除没有被标记、并且比宽限期更早写入的对象，
+ * 宽限期保护正在执行的其他命令刚刚写入但还没有被引用的对象
+ *
+ * @author Kai Decker
+ */
+public class GarbageCollect {
+
+    /** 默认的宽限期，单位为毫秒 */
+    public static final long DEFAULT_GRACE_MS = 60 * 60 * 1000;
+
+    /**
+     * 删除不可达且早于宽限期的对象
+     *
+     * @param graceMs 宽限期，单位为毫秒
+     * @return 删除的对象数
+     */
+    public static int gc(long graceMs) {
+        ObjectBitmap reachable = new ObjectBitmap(objectIds());
+        markReachable(reachable);
+
+        long deadline = System.currentTimeMillis() - graceMs;
+        AtomicInteger removed = new AtomicInteger();
+        IntStream.range(0, reachable.size()).parallel()
+                .filter(i -> !reachable.isMarked(i))
+                .mapToObj(i -> getObjectFile(reachable.get(i)))
+                .filter(f -> f.lastModified() < deadline)
+                .forEach(f -> {
+                    if (f.delete()) {
+                        removed.incrementAndGet();
+                    }
+                });
+        if (removed.get() > 0) {
+            pruneCommitList();
+            Chunks.prune(COMMON_DIR);
+            Blame.clearCache();
+            Methods.clearCache();
+        }
+        BitmapIndex.write();
+        return removed.get();
+    }
+
+    /**
+     * 在位图中标记所有从分支、每个工作区的 HEAD 和暂存区可达的对象
+     * 每个根提交在线程池中单独遍历，遍历时使用上一次 gc 建立的位图索引
+     */
+    static void markReachable(ObjectBitmap reachable) {
+        Set<String> manifests = Chunks.manifests(COMMON_DIR);
+        BitmapIndex index = BitmapIndex.read(COMMON_DIR);
+        findRoots().parallelStream()
+                .forEach(root -> markCommits(root, reachable, index, manifests));
+        /* 暂存的大文件清单引用的块也是可达的 */
+        for (String id : Worktree.stagedBlobs()) {
+            markBlob(id, reachable, manifests);
+        }
+    }
+
+    /**
+     * 从提交 ROOT 出发标记所有祖先提交及其 blob
+     * 遇到已经被其他线程标记的提交就停止，所以每个提交只会被读取一次；
+     * 有位图的提交把位图中的对象全部标记，不再读取它的祖先
+     */
+    private static void markCommits(String root, ObjectBitmap reachable,
+                                    BitmapIndex index, Set<String> manifests) {
+        Deque<String> stack = new ArrayDeque<>();
+        push(stack, root);
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            if (!reachable.mark(id) || index.forEachInBitmap(id, reachable::mark)) {
+                continue;
+            }
+            Commit c = Methods.toCommit(id);
+            if (c == null) {
+                continue;
+            }
+            c.getBlobs().values().forEach(blob -> markBlob(blob, reachable, manifests));
+            push(stack, c.getParentAsString());
+            push(stack, c.getSecondParentAsString());
+        }
+    }
+
+    /* 标记 blob ID，它是大文件清单时同时标记它的块 */
+    private static void markBlob(String id, ObjectBitmap reachable, Set<String> manifests) {
+        if (!reachable.mark(id) || !manifests.contains(id)) {
+            return;
+        }
+        Blob b = Methods.toBlob(id);
+        if (b != null && b.getChunks() != null) {
+            for (String chunk : b.getChunks()) {
+                reachable.mark(chunk);
+            }
+        }
+    }
+
+    /* 把提交 uid 压入栈中，忽略空的父提交 */
+    private static void push(Deque<String> stack, String id) {
+        if (id != null && !id.isEmpty()) {
+            stack.push(id);
+        }
+    }
+
+    /**
+     * @return 所有分支和每个工作区的 HEAD 指向的提交 uid
+     */
+    static List<String> findRoots() {
+        List<String> roots = new ArrayList<>(Worktree.heads());
+        Branch.all().forEach(b -> roots.add(b.getHEADAsString()));
+        return roots;
+    }
+
+    /* 从 COMMITS 中移除已经被删除的提交 */
+    private static void pruneCommitList() {
+        String cs = readContentsAsString(COMMITS);
+        StringBuilder kept = new StringBuilder(cs.length());
+        for (int i = 0; i + UID_LENGTH <= cs.length(); i += UID_LENGTH) {
+            String id = cs.substring(i, i + UID_LENGTH);
+            if (getObjectFile(id).exists()) {
+                kept.append(id);
+            }
+        }
+        writeContents(COMMITS, kept.toString());
+        String[] dirs = OBJECTS_DIR.list();
+        if (dirs != null) {
+            for (String d : dirs) {
+                /* 只有空目录才会被删除 */
+                new File(OBJECTS_DIR, d).delete();
+            }
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static gitlet.Methods.*;
 import static gitlet.Repository.*;
@@ -35,10 +41,15 @@ public class GitletUtils {
     /**
      * 使用命令 'add + fileName'
      * 来把工作区文件放入 index 暂存区
+     * 或者 'add -u' 暂存所有已跟踪文件的修改和删除，'add -A' 同时暂存未跟踪的文件
      */
     public static void add(String[] args) {
         /* 要求仓库存在并且恰好 1 个操作数即文件名 */
         judgeCommand(args, 1);
+        if (args[1].equals("-A") || args[1].equals("-u")) {
+            readStagingArea().addAll(args[1].equals("-A"));
+            return;
+        }
         File inFile = join(CWD, args[1]);
         if (!inFile.exists()) {
             exit("File does not exist.");
@@ -48,14 +59,18 @@ public class GitletUtils {
     }
 
     /**
-     * 使用命令 'rm + fileName'
-     * 将文件从 index 暂存区移除
+     * 使用命令 'rm + fileName...'
+     * 将文件从 index 暂存区移除，多个文件时暂存区只写入一次
      */
     public static void remove(String[] args) {
-        /* 要求仓库存在并且恰好 1 个操作数即文件名 */
-        judgeCommand(args, 1);
-        File inFile = join(CWD, args[1]);
-        if (!readStagingArea().remove(inFile)) {
+        /* 要求仓库存在并且至少 1 个操作数即文件名 */
+        exitUnlessRepoExists();
+        judgeOperands(1, Integer.MAX_VALUE - 1, args);
+        List<File> files = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            files.add(join(CWD, args[i]));
+        }
+        if (!readStagingArea().removeAll(files)) {
             exit("No reason to remove the file.");
         }
     }
@@ -107,12 +122,48 @@ public class GitletUtils {
     }
 
     /**
-     * 使用命令 'log'
+     * 使用命令 'log [-n N] [--since DATE] [--first-parent] [--date-order | --topo-order]'
      * 打印当前分支的向后日志
+     * 默认只沿着第一父提交走，--date-order 和 --topo-order 会遍历所有父提交
      */
     public static void log(String[] args) {
-        judgeCommand(args, 0);
-        Log.log(readHEADAsCommit());
+        exitUnlessRepoExists();
+        Log.Order order = Log.Order.FIRST_PARENT;
+        boolean firstParent = false;
+        int limit = Integer.MAX_VALUE;
+        Date since = null;
+        for (int i = 1; i < args.length; i++) {
+            boolean hasValue = i + 1 < args.length;
+            switch (args[i]) {
+                case "-n":
+                    if (!hasValue || !args[i + 1].matches("\\d+")) {
+                        exit("Incorrect operands.");
+                    }
+                    limit = Integer.parseInt(args[++i]);
+                    break;
+                case "--since":
+                    since = hasValue ? Log.parseDate(args[++i]) : null;
+                    if (since == null) {
+                        exit("Incorrect operands.");
+                    }
+                    break;
+                case "--first-parent":
+                    firstParent = true;
+                    break;
+                case "--date-order":
+                    order = Log.Order.DATE;
+                    break;
+                case "--topo-order":
+                    order = Log.Order.TOPO;
+                    break;
+                default:
+                    exit("Incorrect operands.");
+            }
+        }
+        if (firstParent) {
+            order = Log.Order.FIRST_PARENT;
+        }
+        Log.log(readHEADAsCommit(), order, limit, since);
     }
 
     /**
@@ -129,8 +180,12 @@ public class GitletUtils {
      * 打印当前工作目录的分支/暂存/未跟踪/修改等状态
      */
     public static void status(String[] args) {
-        judgeCommand(args, 0);
-        Status.printStatus();
+        exitUnlessRepoExists();
+        judgeOperands(0, 1, args);
+        if (args.length == 2 && !args[1].equals("--renames")) {
+            exit("Incorrect operands.");
+        }
+        Status.printStatus(args.length == 2);
     }
 
     /**
@@ -156,6 +211,15 @@ public class GitletUtils {
         b.updateBranch();
     }
 
+    /**
+     * 使用命令 'pack-refs'
+     * 把 refs/heads 中的所有分支文件打包进 packed-refs
+     */
+    public static void packRefs(String[] args) {
+        judgeCommand(args, 0);
+        PackedRefs.pack(COMMON_DIR);
+    }
+
     /**
      * 使用命令 'rm-branch [branch name]'
      * 删除给定名字的 branch
@@ -166,6 +230,8 @@ public class GitletUtils {
         Branch cur = readHEADAsBranch();
         if (name.equals(cur.toString())) {
             exit("Cannot remove the current branch.");
+        } else if (Worktree.isCheckedOutElsewhere(name)) {
+            exit("Cannot remove a branch checked out in another worktree.");
         } else if (!cur.remove(name)) {
             exit("A branch with that name does not exist.");
         }
@@ -187,11 +253,15 @@ public class GitletUtils {
     }
 
     /**
-     * 使用命令 'merge [branch name]'
-     * 把目标分支合并进当前分支
+     * 使用命令 'merge [branch name] [--renames]'
+     * 把目标分支合并进当前分支，--renames 时一边重命名、另一边修改的文件按同一个文件合并
      */
     public static void merge(String[] args) {
-        judgeCommand(args, 1);
+        exitUnlessRepoExists();
+        judgeOperands(1, 2, args);
+        if (args.length == 3 && !args[2].equals("--renames")) {
+            exit("Incorrect operands.");
+        }
         Branch cur = readHEADAsBranch();
         Branch b = Branch.readBranch(args[1]);
         if (b == null) {
@@ -205,7 +275,176 @@ public class GitletUtils {
         }
         untrackedExist();
         /*使用 Merge 类*/
-        Merge.merge(cur, b);
+        Merge.merge(cur, b, args.length == 3);
+    }
+
+    /**
+     * 使用命令 'migrate'
+     * 把旧仓库的 blob 迁移为只按文件内容寻址的格式
+     */
+    public static void migrate(String[] args) {
+        judgeCommand(args, 0);
+        migrateBlobs();
+    }
+
+    /**
+     * 使用命令 'gc [--now]'
+     * 删除对象库中不可达的对象
+     * 默认只删除一小时之前写入的对象，--now 表示没有宽限期
+     */
+    public static void gc(String[] args) {
+        exitUnlessRepoExists();
+        judgeOperands(0, 1, args);
+        long grace = GarbageCollect.DEFAULT_GRACE_MS;
+        if (args.length == 2) {
+            if (!args[1].equals("--now")) {
+                exit("Incorrect operands.");
+            }
+            grace = 0;
+        }
+        int removed = GarbageCollect.gc(grace);
+        System.out.println("Removed " + removed + " unreachable objects.");
+    }
+
+    /**
+     * 使用命令 'fsck'
+     * 检查对象库中的对象是否损坏、缺失或者不可达
+     */
+    public static void fsck(String[] args) {
+        judgeCommand(args, 0);
+        Fsck.fsck();
+    }
+
+    /**
+     * 使用命令 'grep [pattern] [--all-history]'
+     * 在当前提交（或者所有提交）的文件中搜索正则表达式
+     */
+    public static void grep(String[] args) {
+        exitUnlessRepoExists();
+        judgeOperands(1, 2, args);
+        List<Commit> commits = new ArrayList<>();
+        if (args.length == 3) {
+            if (!args[2].equals("--all-history")) {
+                exit("Incorrect operands.");
+            }
+            /* fetch 和 bundle 带来的提交不在提交列表中，所以从所有分支遍历 */
+            commits.addAll(allCommits());
+            commits.sort(Comparator.comparing(Commit::getDate));
+        } else {
+            commits.add(readHEADAsCommit());
+        }
+        Pattern pattern = null;
+        try {
+            pattern = Pattern.compile(args[1]);
+        } catch (PatternSyntaxException excp) {
+            exit("Invalid pattern.");
+        }
+        Grep.grep(pattern, commits);
+    }
+
+    /**
+     * 使用命令 'blame [file name]'
+     * 显示当前提交中文件的每一行最后是由哪个提交修改的
+     */
+    public static void blame(String[] args) {
+        judgeCommand(args, 1);
+        Blame.blame(readHEADAsCommit(), join(CWD, args[1]));
+    }
+
+    /**
+     * 使用命令 'archive [commit id] -o [file name]'
+     * 把提交的快照直接从对象库导出为 zip、tar 或 tar.gz 文件，格式由扩展名决定
+     * 提交也可以用分支名指定
+     */
+    public static void archive(String[] args) {
+        exitUnlessRepoExists();
+        judgeOperands(3, 3, args);
+        if (!args[2].equals("-o")) {
+            exit("Incorrect operands.");
+        }
+        Commit commit = toCommit(args[1]);
+        if (commit == null && Branch.isExists(args[1])) {
+            commit = toCommit(Branch.readBranch(args[1]).getHEADAsString());
+        }
+        if (commit == null) {
+            exit("No commit with that id exists.");
+        }
+        File out = new File(args[3]);
+        if (!out.isAbsolute()) {
+            out = join(CWD, args[3]);
+        }
+        try {
+            Archive.archive(commit, out, Archive.formatOf(out.getName()));
+        } catch (GitletException excp) {
+            /* 例如 blob 缺失，不留下不完整的归档 */
+            out.delete();
+            exit(excp.getMessage());
+        }
+    }
+
+    /**
+     * 使用命令 'worktree add [directory] [branch name]' 或者 'worktree list'
+     * 创建一个共享对象库和分支、但有自己的 HEAD 和暂存区的工作区，或者列出所有工作区
+     */
+    public static void worktree(String[] args) {
+        exitUnlessRepoExists();
+        if (args.length == 4 && args[1].equals("add")) {
+            if (!Branch.isExists(args[3])) {
+                exit("A branch with that name does not exist.");
+            }
+            File dir = new File(args[2]);
+            if (!dir.isAbsolute()) {
+                dir = join(CWD, args[2]);
+            }
+            Worktree.add(dir, Branch.readBranch(args[3]));
+        } else if (args.length == 2 && args[1].equals("list")) {
+            Worktree.list();
+        } else {
+            exit("Incorrect operands.");
+        }
+    }
+
+    /**
+     * 使用命令 'sparse-checkout set [pattern]...'、'sparse-checkout list'
+     * 或者 'sparse-checkout disable'
+     * 设置、查看或关闭稀疏检出
+     */
+    public static void sparseCheckout(String[] args) {
+        exitUnlessRepoExists();
+        if (args.length < 2) {
+            exit("Incorrect operands.");
+        }
+        if (args[1].equals("set") && args.length > 2) {
+            Sparse.set(Arrays.asList(args).subList(2, args.length));
+        } else if (args[1].equals("list") && args.length == 2) {
+            Sparse.patterns().forEach(System.out::println);
+        } else if (args[1].equals("disable") && args.length == 2) {
+            Sparse.disable();
+        } else {
+            exit("Incorrect operands.");
+        }
+    }
+
+    /**
+     * 使用命令 'daemon start [--fsmonitor]' 或者 'daemon stop'
+     * 启动或停止当前仓库的后台进程
+     * --fsmonitor 会让后台进程监视工作区，只重新检查发生变化的文件
+     */
+    public static void daemon(String[] args) {
+        exitUnlessRepoExists();
+        judgeOperands(1, 2, args);
+        if (args[1].equals("start") && args.length == 2) {
+            Daemon.start(false);
+        } else if (args[1].equals("start") && args[2].equals("--fsmonitor")) {
+            Daemon.start(true);
+        } else if (args[1].equals("stop") && args.length == 2) {
+            if (!Daemon.isRunning()) {
+                exit("No daemon is running.");
+            }
+            Daemon.stop();
+        } else {
+            exit("Incorrect operands.");
+        }
     }
 
     /**
@@ -246,10 +485,26 @@ public class GitletUtils {
     }
 
     /**
-     * 使用命令 'fetch [remote name] [remote branch name]'
-     * 获取远程分支到本地
+     * 使用命令 'fetch [remote name] [remote branch name] [--depth N]'
+     * 获取远程分支到本地，--depth N 只获取分支最近的 N 层提交
      */
     public static void fetch(String[] args) {
+        if (args.length == 2) {
+            fetchBundle(args[1]);
+            return;
+        }
+        int depth = 0;
+        if (args.length == 5 && args[3].equals("--depth")) {
+            try {
+                depth = Integer.parseInt(args[4]);
+            } catch (NumberFormatException excp) {
+                exit("Incorrect operands.");
+            }
+            if (depth <= 0) {
+                exit("Incorrect operands.");
+            }
+            args = Arrays.copyOf(args, 3);
+        }
         judgeCommand(args, 2);
         Remote r = readRemotes();
         String remoteName = args[1];
@@ -257,7 +512,43 @@ public class GitletUtils {
         if (!r.isExists(remoteName) || !r.getRemote(remoteName).exists()) {
             Methods.exit("Remote directory not found.");
         }
-        r.fetch(remoteName, Branch.readBranch(branchName, getRemoteBranchDir(remoteName)));
+        r.fetch(remoteName, Branch.readBranch(branchName, getRemoteBranchDir(remoteName)), depth);
+    }
+
+    /**
+     * 使用命令 'fetch [bundle file]'
+     * 从 bundle 文件导入历史，分支记录为 [bundle 文件名]/[分支名]
+     */
+    private static void fetchBundle(String path) {
+        exitUnlessRepoExists();
+        File in = new File(path);
+        if (!in.isAbsolute()) {
+            in = join(CWD, path);
+        }
+        if (!in.isFile()) {
+            exit("Bundle file not found.");
+        }
+        Bundle.fetch(in);
+    }
+
+    /**
+     * 使用命令 'bundle create [file name] [branch name]'
+     * 把分支的全部历史写入一个 bundle 文件，之后可以用 'fetch [bundle file]' 导入
+     */
+    public static void bundle(String[] args) {
+        exitUnlessRepoExists();
+        judgeOperands(3, 3, args);
+        if (!args[1].equals("create")) {
+            exit("Incorrect operands.");
+        }
+        if (!Branch.isExists(args[3])) {
+            exit("A branch with that name does not exist.");
+        }
+        File out = new File(args[2]);
+        if (!out.isAbsolute()) {
+            out = join(CWD, args[2]);
+        }
+        Bundle.create(out, Branch.readBranch(args[3]));
     }
 
     /**
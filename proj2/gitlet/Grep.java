@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 表示 gitlet-grep 命令，即直接在对象库中搜索文件内容
+ * <p>
+ * 先收集要搜索的提交中的所有 (文件, blob)，再对每个不同的 blob 并行地搜索一次，
+ * 在多个提交中内容相同的文件只会被读取和搜索一次
+ *
+ * @author Kai Decker
+ */
+public class Grep {
+
+    /**
+     * 在提交 COMMITS 的快照中搜索正则表达式 PATTERN，打印所有匹配的行
+     * 只有一个提交时格式为 "文件名:行号:内容"，
+     * 否则为 "提交 id 前 8 位:文件名:行号:内容"
+     *
+     * @return 匹配的行数
+     */
+    public static int grep(Pattern pattern, List<Commit> commits) {
+        /* 每个提交中按文件名排序的 (文件名, blob) */
+        Map<Commit, Map<String, String>> snapshots = new LinkedHashMap<>();
+        Map<String, List<String>> matches = new ConcurrentHashMap<>();
+        for (Commit c : commits) {
+            Map<String, String> files = new TreeMap<>();
+            c.getBlobs().forEach((path, blob) -> {
+                files.put(new File(path).getName(), blob);
+                matches.put(blob, Collections.emptyList());
+            });
+            snapshots.put(c, files);
+        }
+        /* 每个不同的 blob 只搜索一次 */
+        matches.keySet().parallelStream().forEach(blob -> matches.put(blob, search(pattern, blob)));
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        int count = 0;
+        for (Map.Entry<Commit, Map<String, String>> e : snapshots.entrySet()) {
+            String prefix = commits.size() == 1 ? "" : e.getKey().getUid().substring(0, 8) + ":";
+            for (Map.Entry<String, String> f : e.getValue().entrySet()) {
+                for (String line : matches.get(f.getValue())) {
+                    out.println(prefix + f.getKey() + ":" + line);
+                    count++;
+                }
+            }
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * @return blob BLOB 中匹配 PATTERN 的行，格式为 "行号:内容"
+     */
+    private static List<String> search(Pattern pattern, String blob) {
+        Blob b = Methods.toBlob(blob);
+        if (b == null) {
+            return Collections.emptyList();
+        }
+        List<String> ret = new ArrayList<>();
+        Matcher m = pattern.matcher("");
+        int[] n = {0};
+        b.forEachLine(line -> {
+            n[0]++;
+            if (m.reset(line).find()) {
+                ret.add(n[0] + ":" + line);
+            }
+        });
+        return ret;
+    }
+}
@@ -3,9 +3,11 @@ package gitlet;
 import java.io.File;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gitlet.IndexFile.Entry;
 
 import static gitlet.Utils.join;
-import static gitlet.Utils.restrictedDelete;
 
 /**
  * 表示一个暂存区 index 对象
@@ -16,10 +18,12 @@ import static gitlet.Utils.restrictedDelete;
  */
 public class Index implements Serializable {
 
-    /**
-     * 暂存待提交的文件快照映射
-     * KEY 为文件的绝对路径
-     * VALUE 为 blob 的名字
+    /* 固定序列化版本，用于读取旧格式（Java 序列化）的暂存区 */
+    private static final long serialVersionUID = -8440927276149087845L;
+
+    /*
+     * 以下三个字段只在读取旧格式的暂存区时使用，读取后会被转换为二进制格式
+     * KEY 为文件的绝对路径，VALUE 为 blob 的名字
      */
     private final Map<String, String> added;
 
@@ -29,8 +33,11 @@ public class Index implements Serializable {
     /* 已跟踪但尚未提交的文件绝对路径的集合 */
     private final Set<String> tracked;
 
+    /* 映射到内存的暂存区文件，见 IndexFile */
+    private transient IndexFile store;
+
     /**
-     * 实例化一个 index 对象
+     * 实例化一个空的 index 对象
      * 一个 index 对象存储着待提交文件，待删除文件和跟踪文件的指针
      */
     public Index() {
@@ -39,6 +46,86 @@ public class Index implements Serializable {
         tracked = new HashSet<>();
     }
 
+    /**
+     * 读取暂存区文件
+     * 旧格式的暂存区会被转换为二进制格式并写回
+     */
+    public static Index read() {
+        Index ret;
+        if (IndexFile.isBinary(Repository.INDEX)) {
+            ret = new Index();
+        } else {
+            ret = Utils.readObject(Repository.INDEX, Index.class);
+            ret.convert();
+        }
+        ret.store = IndexFile.open(Repository.INDEX);
+        return ret;
+    }
+
+    /* 把旧格式的三个集合写成二进制格式的暂存区 */
+    private void convert() {
+        SortedMap<String, Entry> entries = new TreeMap<>();
+        tracked.forEach(f -> entries.put(f, new Entry(f, IndexFile.TRACKED, null, 0, 0)));
+        added.forEach((f, blob) -> {
+            Entry e = entries.computeIfAbsent(f, k -> new Entry(k, (byte) 0, null, 0, 0));
+            e.flags |= IndexFile.ADDED;
+            e.blob = blob;
+        });
+        removed.forEach(f -> entries.computeIfAbsent(f, k -> new Entry(k, (byte) 0, null, 0, 0))
+                .flags |= IndexFile.REMOVED);
+        IndexFile.write(Repository.INDEX, entries);
+        added.clear();
+        removed.clear();
+        tracked.clear();
+    }
+
+    /* 创建一个空的暂存区文件 */
+    public static void create() {
+        IndexFile.write(Repository.INDEX, new TreeMap<>());
+    }
+
+    /**
+     * @return 路径 PATH 对应的项，不存在时返回 null
+     */
+    private Entry find(String path) {
+        int i = store.find(path);
+        return i < 0 ? null : store.get(i);
+    }
+
+    /**
+     * 写入路径为 E.path 的项
+     * 已有的项原地改写，新的路径需要重写整个暂存区文件
+     */
+    private void put(Entry e) {
+        int i = store.find(e.path);
+        if (i >= 0) {
+            store.update(i, e);
+        } else if (e.flags != 0) {
+            putAll(List.of(e));
+        }
+    }
+
+    /**
+     * 一次写入 ES 中的所有项，整个暂存区文件只重写一次，
+     * 而不是对每一项都原地改写并刷新到磁盘
+     */
+    private void putAll(Collection<Entry> es) {
+        if (es.isEmpty()) {
+            return;
+        }
+        SortedMap<String, Entry> entries = new TreeMap<>();
+        store.entries().forEach(x -> entries.put(x.path, x));
+        es.forEach(e -> entries.put(e.path, e));
+        IndexFile.write(Repository.INDEX, entries);
+        store = IndexFile.open(Repository.INDEX);
+    }
+
+    /* 判断路径 PATH 的项是否带有标志 FLAG */
+    private boolean has(String path, byte flag) {
+        Entry e = find(path);
+        return e != null && e.has(flag);
+    }
+
     /**
      * 判断文件在给定的提交里有没有被修改
      *
@@ -46,11 +133,11 @@ public class Index implements Serializable {
      */
     public static boolean isModified(File inFile, Commit c) {
         /* 如果文件不存在 */
-        if (!inFile.exists()) {
+        if (!FsMonitor.exists(inFile)) {
             return true;
         }
         /* 获取当前文件的 blob */
-        String current = Blob.getBlobName(inFile);
+        String current = FsMonitor.blobName(inFile);
         /* 从给定提交获取此文件的 blob */
         String oldBlobName = c.getBlob(inFile);
         /* 文件在给定提交中不存在或哈希值不相等 */
@@ -77,16 +164,32 @@ public class Index implements Serializable {
      */
     public void add(File file) {
         String f = file.getAbsolutePath();
-        /* 如果之前标记过删除，则撤销删除，恢复追踪 */
-        if (isRemoved(file)) {
-            removed.remove(f);
+        Entry e = find(f);
+        if (e == null) {
+            e = new Entry(f, (byte) 0, null, 0, 0);
         }
+        /* 如果之前标记过删除，则撤销删除，恢复追踪 */
+        e.flags &= ~IndexFile.REMOVED;
+        boolean unchanged = e.has(IndexFile.ADDED)
+                && isUnchanged(e, file, Repository.INDEX.lastModified());
         /* 只有确实有改动时才会真正写入 */
-        if (isModified(file, Methods.readHEADAsCommit())) {
-            added.put(f, new Blob(file).makeBlob());
-            tracked.add(f);
+        if (!unchanged && isModified(file, Methods.readHEADAsCommit())) {
+            e.blob = new Blob(file).makeBlob();
+            e.flags |= IndexFile.ADDED | IndexFile.TRACKED;
+            e.mtime = file.lastModified();
+            e.size = file.length();
         }
-        save();
+        put(e);
+    }
+
+    /**
+     * 文件的修改时间和大小与暂存时相同，说明内容没有变化，不需要重新哈希
+     * 修改时间不早于暂存区文件（修改时间为 INDEXMTIME）的文件可能在同一时刻被再次修改，仍然需要检查
+     *
+     * @return 文件 FILE 的内容确定和暂存项 E 记录的 blob 相同时返回 true
+     */
+    static boolean isUnchanged(Entry e, File file, long indexMtime) {
+        return e.mtime == file.lastModified() && e.size == file.length() && e.mtime < indexMtime;
     }
 
     /**
@@ -96,50 +199,178 @@ public class Index implements Serializable {
      * 同时从工作目录中实际删除该文件（如果用户还没手动删除）
      */
     public boolean remove(File file) {
-        boolean flag = false;
-        String f = file.getAbsolutePath();
-        /* 如果在 added 里 */
-        if (isStaged(file)) {
-            added.remove(f);
-            flag = true;
+        return removeAll(List.of(file));
+    }
+
+    /**
+     * 对 FILES 中的每个文件做 {@link #remove(File)}，暂存区只写入一次
+     * 只要有一个文件既没有暂存也没有被跟踪，就不做任何改动
+     *
+     * @return 所有文件都可以移除时返回 true
+     */
+    public boolean removeAll(Collection<File> files) {
+        Commit h = Methods.readHEADAsCommit();
+        List<Entry> changed = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (File file : files) {
+            String f = file.getAbsolutePath();
+            Entry e = find(f);
+            if (e == null) {
+                e = new Entry(f, (byte) 0, null, 0, 0);
+            }
+            /* 如果在 added 里 */
+            if (e.has(IndexFile.ADDED)) {
+                e.flags &= ~IndexFile.ADDED;
+                e.blob = null;
+            } else if (h.getBlob(file) != null || e.has(IndexFile.TRACKED)) {
+                /* 在 removed 中标为待删除 */
+                e.flags |= IndexFile.REMOVED;
+                deleted.add(f);
+            } else {
+                return false;
+            }
+            changed.add(e);
+        }
+        if (changed.size() == 1) {
+            put(changed.get(0));
+        } else {
+            putAll(changed);
+        }
+        /* 删除其物理文件 */
+        deleted.forEach(Utils::restrictedDelete);
+        return true;
+    }
+
+    /**
+     * 一次扫描暂存所有已跟踪文件的修改和删除，即 add -u；
+     * ALL 为 true 时同时暂存工作区中未跟踪的文件，即 add -A
+     * <p>
+     * 先并行地得到每个文件当前内容的 blob id，再按 {@link #add} 和 {@link #remove} 的规则
+     * 更新每一项：内容与当前提交相同的文件取消暂存，不同的文件暂存新的 blob，
+     * 被删除的已提交文件标记为待删除，被删除的新文件取消跟踪。暂存区只写入一次
+     * <br>
+     * 稀疏检出时跳过范围外的文件
+     *
+     * @return 改变了的项数
+     */
+    public int addAll(boolean all) {
+        Map<String, String> head = Methods.readHEADAsCommit().getBlobs();
+        Map<String, Entry> entries = new HashMap<>();
+        store.entries().forEach(e -> entries.put(e.path, e));
+        Set<String> paths = new TreeSet<>();
+        head.keySet().stream().filter(p -> Sparse.includes(new File(p))).forEach(paths::add);
+        entries.values().stream().filter(e -> e.has(IndexFile.ADDED) || e.has(IndexFile.TRACKED))
+                .forEach(e -> paths.add(e.path));
+        List<String> files = all ? FsMonitor.workingFiles() : null;
+        if (files != null) {
+            files.forEach(n -> paths.add(join(Repository.CWD, n).getAbsolutePath()));
         }
-        if (!flag && isTracked(file, Methods.readHEADAsCommit())) {
-            /* 在 removed 中标为待删除 */
-            removed.add(f);
-            /* 删除其物理文件 */
-            restrictedDelete(f);
-            flag = true;
+        Map<String, String> current = currentBlobs(paths, entries);
+
+        List<Entry> changed = new ArrayList<>();
+        for (String p : paths) {
+            File file = new File(p);
+            Entry e = entries.getOrDefault(p, new Entry(p, (byte) 0, null, 0, 0));
+            byte flags = e.flags;
+            String staged = e.blob;
+            String blob = current.get(p);
+            String headBlob = head.get(p);
+            if (blob == null && headBlob != null) {
+                e.flags &= ~IndexFile.ADDED;
+                e.flags |= IndexFile.REMOVED;
+                e.blob = null;
+            } else if (blob == null) {
+                e.flags = 0;
+                e.blob = null;
+            } else if (blob.equals(headBlob)) {
+                e.flags &= ~(IndexFile.ADDED | IndexFile.REMOVED);
+                e.blob = null;
+            } else {
+                if (!Repository.getObjectFile(blob).exists()) {
+                    blob = new Blob(file).makeBlob();
+                }
+                e.flags &= ~IndexFile.REMOVED;
+                e.flags |= IndexFile.ADDED | IndexFile.TRACKED;
+                e.blob = blob;
+                e.mtime = file.lastModified();
+                e.size = file.length();
+            }
+            if (e.flags != flags || !Objects.equals(e.blob, staged)) {
+                changed.add(e);
+            }
+        }
+        putAll(changed);
+        return changed.size();
+    }
+
+    /**
+     * 并行地计算 PATHS 中每个存在的文件当前内容的 blob id
+     * 暂存时记录的修改时间和大小没有变化的文件直接使用 ENTRIES 中暂存的 blob，
+     * 其余文件需要读取并哈希
+     *
+     * @return 存在的文件的路径到 blob id 的映射
+     */
+    static Map<String, String> currentBlobs(Collection<String> paths, Map<String, Entry> entries) {
+        long indexMtime = Repository.INDEX.lastModified();
+        Map<String, String> ret = new ConcurrentHashMap<>();
+        paths.parallelStream().forEach(p -> {
+            File f = new File(p);
+            Entry e = entries.get(p);
+            if (e != null && e.has(IndexFile.ADDED) && isUnchanged(e, f, indexMtime)) {
+                ret.put(p, e.blob);
+            } else if (FsMonitor.exists(f)) {
+                ret.put(p, FsMonitor.blobName(f));
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * 不读取工作区，直接把 blob BLOB 暂存为文件 FILE 的新内容
+     * 用于合并时不在稀疏检出范围内的文件
+     */
+    public void stageBlob(File file, String blob) {
+        String f = file.getAbsolutePath();
+        Entry e = find(f);
+        if (e == null) {
+            e = new Entry(f, (byte) 0, null, 0, 0);
         }
-        save();
-        return flag;
+        e.flags &= ~IndexFile.REMOVED;
+        e.flags |= IndexFile.ADDED | IndexFile.TRACKED;
+        e.blob = blob;
+        e.mtime = 0;
+        e.size = 0;
+        put(e);
     }
 
     /* 清空暂存区中的 index.added, index.removed, index.tracked */
     public void cleanStagingArea() {
-        added.clear();
-        removed.clear();
-        tracked.clear();
-        save();
+        create();
+        store = IndexFile.open(Repository.INDEX);
     }
 
-    /* 将 index 对象序列化写入 */
-    public void save() {
-        Utils.writeObject(Repository.INDEX, this);
+    /* 修改已暂存文件 PATH 的 blob id，用于 blob 的迁移 */
+    public void updateBlob(String path, String blob) {
+        Entry e = find(path);
+        if (e != null && e.has(IndexFile.ADDED)) {
+            e.blob = blob;
+            put(e);
+        }
     }
 
     /* 判断文件是否标记为删除，在待删中 */
     public boolean isRemoved(File inFile) {
-        return removed.contains(inFile.getAbsolutePath());
+        return has(inFile.getAbsolutePath(), IndexFile.REMOVED);
     }
 
     /* 判断文件是否待提交 */
     public boolean isStaged(File inFile) {
-        return added.containsKey(inFile.getAbsolutePath());
+        return has(inFile.getAbsolutePath(), IndexFile.ADDED);
     }
 
     /* 判断文件是否已跟踪未提交 */
     private boolean isTracked(File file) {
-        return tracked.contains(file.getAbsolutePath());
+        return has(file.getAbsolutePath(), IndexFile.TRACKED);
     }
 
     /**
@@ -152,15 +383,35 @@ public class Index implements Serializable {
 
     /* 判断暂存区是否有改动 */
     public boolean isCommitted() {
-        return added.isEmpty() && removed.isEmpty();
+        return store.entries().stream()
+                .noneMatch(e -> e.has(IndexFile.ADDED) || e.has(IndexFile.REMOVED));
+    }
+
+    /**
+     * @return 暂存区中的所有项，按路径排序
+     */
+    List<Entry> entries() {
+        return store.entries();
     }
 
+    /**
+     * @return 暂存待添加的文件的绝对路径到 blob id 的映射
+     */
     public Map<String, String> getAdded() {
-        return added;
+        Map<String, String> ret = new HashMap<>();
+        store.entries().stream().filter(e -> e.has(IndexFile.ADDED))
+                .forEach(e -> ret.put(e.path, e.blob));
+        return ret;
     }
 
+    /**
+     * @return 暂存待删除的文件的绝对路径
+     */
     public Set<String> getRemoved() {
-        return removed;
+        Set<String> ret = new HashSet<>();
+        store.entries().stream().filter(e -> e.has(IndexFile.REMOVED))
+                .forEach(e -> ret.add(e.path));
+        return ret;
     }
 
     /**
@@ -170,13 +421,13 @@ public class Index implements Serializable {
      */
     public Set<String> getAddedFilenames() {
         Set<String> ret = new HashSet<>();
-        added.keySet().forEach(n -> ret.add(join(n).getName()));
+        getAdded().keySet().forEach(n -> ret.add(join(n).getName()));
         return ret;
     }
 
     public Set<String> getRemovedFilenames() {
         Set<String> ret = new HashSet<>();
-        removed.forEach(n -> ret.add(join(n).getName()));
+        getRemoved().forEach(n -> ret.add(join(n).getName()));
         return ret;
     }
 }
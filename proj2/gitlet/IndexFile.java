@@ -0,0 +1,348 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.error;
+
+/**
+ * 暂存区 index 的二进制文件格式，通过内存映射读写
+ * <p>
+ * 文件布局（整数均为大端序）：
+ * <br>文件头 20 字节：magic "GLIX"，版本号，项数，路径区字节数，文件头的 CRC32
+ * <br>定长的项，每项 {@value #RECORD} 字节，按路径的字典序排列：
+ * 路径偏移 int，路径长度 short，标志 byte，保留 byte，blob id 20 字节，
+ * 修改时间 long，文件大小 long，本项（包括路径）的 CRC32 int
+ * <br>路径区：所有路径的 UTF-8 字节
+ * <p>
+ * 查找时在映射的文件上二分查找，修改已有的项时只原地改写这一项，
+ * 只有插入新的路径时才需要重写整个文件
+ * <p>
+ * 文件只以只读方式映射，改写一项时通过 FileChannel 写入文件，然后重新映射。
+ * 重写整个文件时写入临时文件再替换，之前打开的 IndexFile 仍然映射着旧文件，
+ * 调用者需要重新 {@link #open}；用旧的 IndexFile 改写时，
+ * 如果文件已经被替换并且这一项的位置不同，会报错而不是写到错误的位置。
+ * Windows 上不能替换仍被映射的文件，所以在 Windows 上把文件读入内存而不映射
+ *
+ * @author Kai Decker
+ */
+class IndexFile {
+
+    /** 文件开头的 magic，即 "GLIX" */
+    static final int MAGIC = 0x474C4958;
+    static final int VERSION = 2;
+
+    /** 标志：暂存待添加 */
+    static final byte ADDED = 1;
+    /** 标志：暂存待删除 */
+    static final byte REMOVED = 2;
+    /** 标志：已跟踪但尚未提交 */
+    static final byte TRACKED = 4;
+
+    static final int HEADER = 20;
+    static final int RECORD = 48;
+
+    private static final int BLOB_BYTES = 20;
+
+    /** 暂存区中的一项 */
+    static class Entry {
+        final String path;
+        byte flags;
+        String blob;
+        long mtime;
+        long size;
+
+        Entry(String path, byte flags, String blob, long mtime, long size) {
+            this.path = path;
+            this.flags = flags;
+            this.blob = blob;
+            this.mtime = mtime;
+            this.size = size;
+        }
+
+        boolean has(byte flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    /* 映射的文件不能被替换的平台上把文件读入内存 */
+    private static final boolean MAP = !System.getProperty("os.name").startsWith("Windows");
+
+    private final File file;
+    /* 文件的内容，改写一项之后重新映射 */
+    private ByteBuffer buf;
+    private final int count;
+    private final int pathBase;
+
+    private IndexFile(File file, ByteBuffer buf) {
+        this.file = file;
+        this.buf = buf;
+        if (buf == null) {
+            count = 0;
+            pathBase = HEADER;
+            return;
+        }
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw error("Corrupt index file.");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.slice(0, 16));
+        if ((int) crc.getValue() != buf.getInt(16)) {
+            throw error("Corrupt index file.");
+        }
+        count = buf.getInt(8);
+        pathBase = HEADER + count * RECORD;
+    }
+
+    /**
+     * 以只读方式映射暂存区文件 F
+     */
+    static IndexFile open(File f) {
+        if (!f.isFile() || f.length() == 0) {
+            return new IndexFile(f, null);
+        }
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return new IndexFile(f, load(ch));
+        } catch (IOException excp) {
+            throw error("Cannot read the index: %s", excp.getMessage());
+        }
+    }
+
+    /* 映射 CH 的文件，见 MAP */
+    private static ByteBuffer load(FileChannel ch) throws IOException {
+        if (MAP) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        return readAt(ch, 0, (int) ch.size());
+    }
+
+    /* 从 CH 的 POS 处读取 LEN 个字节 */
+    private static ByteBuffer readAt(FileChannel ch, long pos, int len) throws IOException {
+        ByteBuffer ret = ByteBuffer.allocate(len);
+        while (ret.hasRemaining() && ch.read(ret, pos + ret.position()) >= 0) {
+            continue;
+        }
+        return ret.flip();
+    }
+
+    /**
+     * @return 文件 F 是否为这种二进制格式
+     */
+    static boolean isBinary(File f) {
+        if (!f.isFile() || f.length() < HEADER) {
+            return false;
+        }
+        byte[] head = new byte[4];
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            ch.read(ByteBuffer.wrap(head));
+        } catch (IOException excp) {
+            return false;
+        }
+        return ByteBuffer.wrap(head).getInt() == MAGIC;
+    }
+
+    /**
+     * @return 项数，包括已经清空标志的项
+     */
+    int size() {
+        return count;
+    }
+
+    /* 第 I 项的路径 */
+    private String pathAt(int i) {
+        int r = HEADER + i * RECORD;
+        int off = buf.getInt(r);
+        int len = buf.getShort(r + 4) & 0xffff;
+        byte[] b = new byte[len];
+        buf.get(pathBase + off, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 二分查找路径 PATH
+     *
+     * @return 项的下标，不存在时返回负数
+     */
+    int find(String path) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = pathAt(mid).compareTo(path);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取第 I 项，并校验它的 CRC32
+     */
+    Entry get(int i) {
+        int r = HEADER + i * RECORD;
+        if (recordCrc(r) != buf.getInt(r + RECORD - 4)) {
+            throw error("Corrupt index entry %d.", i);
+        }
+        byte[] blob = new byte[BLOB_BYTES];
+        buf.get(r + 8, blob);
+        return new Entry(pathAt(i), buf.get(r + 6), toHex(blob),
+                buf.getLong(r + 28), buf.getLong(r + 36));
+    }
+
+    /**
+     * 原地改写第 I 项的标志、blob id 和文件状态，路径不变
+     */
+    void update(int i, Entry e) {
+        int r = HEADER + i * RECORD;
+        ByteBuffer rec = ByteBuffer.allocate(RECORD);
+        buf.get(r, rec.array());
+        rec.put(6, e.flags);
+        rec.put(8, fromHex(e.blob));
+        rec.putLong(28, e.mtime);
+        rec.putLong(36, e.size);
+        rec.putInt(RECORD - 4, recordCrc(rec, r));
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (!sameLayout(ch, r)) {
+                throw error("The index was changed by another command.");
+            }
+            while (rec.hasRemaining()) {
+                ch.write(rec, r + rec.position());
+            }
+            ch.force(false);
+            buf = load(ch);
+        } catch (IOException excp) {
+            throw error("Cannot write the index: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * 文件在 CH 被打开之前可能已经被替换，
+     * 只有文件头以及第 R 字节处的项的路径都和映射的内容相同时，这一项的位置才没有变
+     */
+    private boolean sameLayout(FileChannel ch, int r) throws IOException {
+        if (!readAt(ch, 0, HEADER).equals(buf.slice(0, HEADER))
+                || !readAt(ch, r, 6).equals(buf.slice(r, 6))) {
+            return false;
+        }
+        int off = buf.getInt(r);
+        int len = buf.getShort(r + 4) & 0xffff;
+        return readAt(ch, pathBase + off, len).equals(buf.slice(pathBase + off, len));
+    }
+
+    /**
+     * @return 所有标志不为空的项，按路径排序
+     */
+    List<Entry> entries() {
+        List<Entry> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Entry e = get(i);
+            if (e.flags != 0) {
+                ret.add(e);
+            }
+        }
+        return ret;
+    }
+
+    /* 第 R 字节处的项（包括它的路径）的 CRC32 */
+    private int recordCrc(int r) {
+        return recordCrc(buf.slice(r, RECORD), r);
+    }
+
+    /* 内容为 REC 的第 R 字节处的项（包括映射中它的路径）的 CRC32 */
+    private int recordCrc(ByteBuffer rec, int r) {
+        CRC32 crc = new CRC32();
+        crc.update(rec.slice(0, RECORD - 4));
+        int off = buf.getInt(r);
+        int len = buf.getShort(r + 4) & 0xffff;
+        crc.update(buf.slice(pathBase + off, len));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 把所有项写入文件 F，标志为空的项会被丢弃
+     * 先写入临时文件，再原子地替换，之后需要重新 {@link #open}
+     */
+    static void write(File f, SortedMap<String, Entry> entries) {
+        List<Entry> list = new ArrayList<>();
+        List<byte[]> paths = new ArrayList<>();
+        int pathBytes = 0;
+        for (Entry e : entries.values()) {
+            if (e.flags != 0) {
+                byte[] p = e.path.getBytes(StandardCharsets.UTF_8);
+                list.add(e);
+                paths.add(p);
+                pathBytes += p.length;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER + list.size() * RECORD + pathBytes);
+        out.putInt(MAGIC).putInt(VERSION).putInt(list.size()).putInt(pathBytes);
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, 16);
+        out.putInt((int) crc.getValue());
+        int pathBase = HEADER + list.size() * RECORD;
+        int off = 0;
+        for (int i = 0; i < list.size(); i++) {
+            Entry e = list.get(i);
+            byte[] p = paths.get(i);
+            int r = out.position();
+            out.putInt(off).putShort((short) p.length).put(e.flags).put((byte) 0)
+                    .put(fromHex(e.blob)).putLong(e.mtime).putLong(e.size);
+            out.put(pathBase + off, p);
+            crc.reset();
+            crc.update(out.array(), r, RECORD - 4);
+            crc.update(p);
+            out.putInt((int) crc.getValue());
+            off += p.length;
+        }
+        File tmp = new File(f.getPath() + ".lock");
+        Utils.writeContents(tmp, out.array());
+        try {
+            Files.move(tmp.toPath(), f.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Cannot write the index: %s", excp.getMessage());
+        }
+    }
+
+    private static byte[] fromHex(String id) {
+        byte[] b = new byte[BLOB_BYTES];
+        if (id != null) {
+            for (int i = 0; i < BLOB_BYTES; i++) {
+                b[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+            }
+        }
+        return b;
+    }
+
+    /* 全为 0 的 blob id 表示没有 blob，返回 null */
+    private static String toHex(byte[] b) {
+        boolean zero = true;
+        for (byte x : b) {
+            zero = zero && x == 0;
+        }
+        if (zero) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(2 * b.length);
+        for (byte x : b) {
+            sb.append(Character.forDigit((x >> 4) & 0xf, 16)).append(Character.forDigit(x & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
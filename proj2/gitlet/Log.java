@@ -1,30 +1,106 @@
 package gitlet;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 /**
  * 表示 Gitlet 的日志功能，包括 gitlet-log 和 gitlet-global-log 命令
+ * <p>
+ * 提交历史由 {@link History} 惰性地遍历，每次只读取下一个要打印的提交，
+ * 所以 log -n 20 只会读取大约 20 个提交
  *
  * @author Kai Decker
  */
 
 public class Log {
+
+    /** 提交历史的遍历顺序 */
+    public enum Order {
+        /* 只沿着第一父提交走，即默认的 log */
+        FIRST_PARENT,
+        /* 遍历所有父提交，按时间从新到旧 */
+        DATE,
+        /* 遍历所有父提交，子提交总在父提交之前，同一层按时间从新到旧 */
+        TOPO
+    }
+
     /**
      * 从当前 HEAD 开始，一直往父提交走，逐个打印日志，直到最初的提交 (parent == null)
      * 忽略了合并提交的第二父提交
      */
     public static void log(Commit c) {
-        while (c != null) {
-            printLog(c);
-            c = Commit.findWithUid(c.getParentAsString());
+        log(c, Order.FIRST_PARENT, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * 按给定的顺序打印从提交 C 可达的提交
+     *
+     * @param limit 最多打印的提交数
+     * @param since 只打印不早于这个时间的提交，为 null 时不限制
+     */
+    public static void log(Commit c, Order order, int limit, Date since) {
+        PrintWriter out = writer();
+        SimpleDateFormat d = dateFormat();
+        try (History it = new History(c, order, since)) {
+            for (int i = 0; i < limit && it.hasNext(); i++) {
+                printLog(out, d, it.next());
+            }
         }
+        out.flush();
     }
 
     /* 打印仓库中所有提交对象的信息 */
     public static void globalLog() {
-        /* 逐个反序列化 */
-        Commit.findAll().forEach(Log::printLog);
+        PrintWriter out = writer();
+        SimpleDateFormat d = dateFormat();
+        /* 逐个反序列化，读一个打印一个 */
+        for (String id : Commit.findAllIds()) {
+            printLog(out, d, Methods.toCommit(id));
+        }
+        out.flush();
+    }
+
+    /**
+     * 解析 --since 的参数，格式为 yyyy-MM-dd 或者 yyyy-MM-dd HH:mm:ss
+     *
+     * @return 解析得到的时间，格式不正确时返回 null
+     */
+    public static Date parseDate(String s) {
+        for (String pattern : new String[] {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"}) {
+            try {
+                SimpleDateFormat f = new SimpleDateFormat(pattern, Locale.ENGLISH);
+                f.setLenient(false);
+                return f.parse(s);
+            } catch (ParseException excp) {
+                /* 尝试下一个格式 */
+            }
+        }
+        return null;
+    }
+
+    /* 带缓冲的标准输出，结束时需要 flush */
+    private static PrintWriter writer() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+    }
+
+    private static SimpleDateFormat dateFormat() {
+        return new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z", Locale.ENGLISH);
     }
 
     /**
@@ -38,11 +114,162 @@ public class Log {
      * <br>
      * {commit message}
      */
-    private static void printLog(Commit c) {
-        System.out.println("===");
-        System.out.println("commit " + c.getUid());
-        SimpleDateFormat d = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z", Locale.ENGLISH);
-        System.out.println("Date: " + d.format(c.getDate()));
-        System.out.println(c.getLog() + "\n");
+    private static void printLog(PrintWriter out, SimpleDateFormat d, Commit c) {
+        out.println("===");
+        out.println("commit " + c.getUid());
+        out.println("Date: " + d.format(c.getDate()));
+        out.println(c.getLog() + "\n");
+    }
+
+    /**
+     * 惰性的提交历史迭代器
+     * FIRST_PARENT 和 DATE 顺序每次只读取需要的提交；
+     * TOPO 顺序需要先遍历一遍可达的提交来统计每个提交的子提交数
+     * <br>
+     * 父提交由 {@link Prefetch} 在后台提前读取，使用结束后需要 close
+     */
+    public static class History implements Iterator<Commit>, AutoCloseable {
+
+        private static final Comparator<Commit> NEWEST_FIRST =
+                Comparator.comparing(Commit::getDate).reversed();
+
+        private final Order order;
+        private final Date since;
+
+        /* FIRST_PARENT 顺序的下一个提交 */
+        private Commit next;
+
+        /* DATE 和 TOPO 顺序中等待输出的提交 */
+        private final PriorityQueue<Commit> queue = new PriorityQueue<>(NEWEST_FIRST);
+
+        /* DATE 顺序中已经入队的提交 */
+        private final Set<String> seen = new HashSet<>();
+
+        /* TOPO 顺序中每个提交尚未输出的子提交数 */
+        private final Map<String, Integer> children = new HashMap<>();
+
+        private final Prefetch prefetch;
+
+        public History(Commit start, Order order, Date since) {
+            this.order = order;
+            this.since = since;
+            if (start == null) {
+                this.prefetch = Prefetch.walk(Repository.OBJECTS_DIR, List.of());
+            } else if (order == Order.FIRST_PARENT) {
+                this.prefetch = Prefetch.walkFirstParent(Repository.OBJECTS_DIR, start.getUid());
+            } else {
+                this.prefetch = Prefetch.walk(Repository.OBJECTS_DIR, List.of(start.getUid()));
+            }
+            if (start == null) {
+                return;
+            }
+            switch (order) {
+                case FIRST_PARENT:
+                    next = start;
+                    break;
+                case TOPO:
+                    countChildren(start);
+                    queue.add(start);
+                    break;
+                default:
+                    seen.add(start.getUid());
+                    queue.add(start);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (order == Order.FIRST_PARENT) {
+                return next != null && isRecent(next);
+            }
+            if (order == Order.DATE) {
+                /* 队列按时间排序，队首早于 since 时剩下的提交都更早 */
+                return !queue.isEmpty() && isRecent(queue.peek());
+            }
+            /* 拓扑顺序不保证时间单调，只能跳过较早的提交 */
+            while (!queue.isEmpty() && !isRecent(queue.peek())) {
+                release(queue.poll());
+            }
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Commit next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (order == Order.FIRST_PARENT) {
+                Commit ret = next;
+                next = Shallow.isBoundary(ret.getUid()) ? null
+                        : prefetch.get(ret.getParentAsString());
+                return ret;
+            }
+            Commit ret = queue.poll();
+            if (order == Order.DATE) {
+                for (String p : parents(ret)) {
+                    if (seen.add(p)) {
+                        Commit c = prefetch.get(p);
+                        if (c != null) {
+                            queue.add(c);
+                        }
+                    }
+                }
+            } else {
+                release(ret);
+            }
+            return ret;
+        }
+
+        /* TOPO 顺序中输出 C 之后，子提交都已输出的父提交可以入队 */
+        private void release(Commit c) {
+            for (String p : parents(c)) {
+                int left = children.merge(p, -1, Integer::sum);
+                if (left == 0) {
+                    Commit pc = prefetch.get(p);
+                    if (pc != null) {
+                        queue.add(pc);
+                    }
+                }
+            }
+        }
+
+        /* 统计从 START 可达的每个提交有多少个可达的子提交 */
+        private void countChildren(Commit start) {
+            Deque<Commit> stack = new ArrayDeque<>();
+            Set<String> visited = new HashSet<>();
+            stack.push(start);
+            visited.add(start.getUid());
+            while (!stack.isEmpty()) {
+                Commit c = stack.pop();
+                for (String p : parents(c)) {
+                    children.merge(p, 1, Integer::sum);
+                    if (visited.add(p)) {
+                        Commit pc = prefetch.get(p);
+                        if (pc != null) {
+                            stack.push(pc);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            prefetch.close();
+        }
+
+        private boolean isRecent(Commit c) {
+            return since == null || !c.getDate().before(since);
+        }
+
+        /* 提交 C 的父提交 uid，不包括空的父提交，浅克隆的边界提交没有父提交 */
+        private static String[] parents(Commit c) {
+            String first = c.getParentAsString();
+            String second = c.getSecondParentAsString();
+            if (first == null || Shallow.isBoundary(c.getUid())) {
+                return new String[0];
+            }
+            return second == null ? new String[] {first} : new String[] {first, second};
+        }
     }
 }
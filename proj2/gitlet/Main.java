@@ -1,6 +1,6 @@
 package gitlet;
 
-import java.lang.reflect.Method;
+import java.util.Set;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *
@@ -10,13 +10,27 @@ public class Main {
 
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  [--trace] <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        /* 如果有后台进程在运行，交给后台进程执行 */
+        if (Daemon.forward(args)) {
+            return;
+        }
+        /* 处理 --trace 参数和 GITLET_TRACE 环境变量 */
+        run(Trace.start(args));
+    }
+
+    /** 执行 ARGS 所表示的命令 */
+    static void run(String[] args) {
         if (args.length == 0) {
             Methods.exit("Please enter a command.");
         }
         String firstArg = args[0];
+        /* 旧仓库的 blob id 和新的 blob id 不能比较，除了下面的命令都要求先执行 migrate */
+        if (!Set.of("init", "migrate", "gc", "fsck").contains(firstArg)) {
+            Repository.checkFormat();
+        }
         switch(firstArg) {
             case "init":
                 GitletUtils.init(args);
@@ -51,12 +65,42 @@ public class Main {
             case "rm-branch":
                 GitletUtils.removeBranch(args);
                 break;
+            case "pack-refs":
+                GitletUtils.packRefs(args);
+                break;
             case "reset":
                 GitletUtils.reset(args);
                 break;
             case "merge":
                 GitletUtils.merge(args);
                 break;
+            case "migrate":
+                GitletUtils.migrate(args);
+                break;
+            case "gc":
+                GitletUtils.gc(args);
+                break;
+            case "fsck":
+                GitletUtils.fsck(args);
+                break;
+            case "grep":
+                GitletUtils.grep(args);
+                break;
+            case "blame":
+                GitletUtils.blame(args);
+                break;
+            case "archive":
+                GitletUtils.archive(args);
+                break;
+            case "worktree":
+                GitletUtils.worktree(args);
+                break;
+            case "sparse-checkout":
+                GitletUtils.sparseCheckout(args);
+                break;
+            case "daemon":
+                GitletUtils.daemon(args);
+                break;
             case "add-remote":
                 GitletUtils.addRemote(args);
                 break;
@@ -66,6 +110,9 @@ public class Main {
             case "fetch":
                 GitletUtils.fetch(args);
                 break;
+            case "bundle":
+                GitletUtils.bundle(args);
+                break;
             case "push":
                 GitletUtils.push(args);
                 break;
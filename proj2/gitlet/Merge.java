@@ -18,8 +18,9 @@ public class Merge {
 
     /**
      * 从给定的分支 branch 和目前的分支 branch 合并文件
+     * RENAMES 为 true 时先按两边的重命名对齐路径，见 {@link #alignRenames}
      */
-    public static void merge(Branch current, Branch given) {
+    public static void merge(Branch current, Branch given, boolean renames) {
         /* 计算分裂点的提交的 uid */
         String split = getSplitPoint(current, given);
         /*
@@ -34,7 +35,12 @@ public class Merge {
          * 说明当前分支落后，则快进或切换到给定分支 branch
          */
         if (current.getHEADAsString().equals(split)) {
-            checkoutBranch(given.toString());
+            /* 给定分支在另一个工作区中检出时不能切换过去，改为把当前分支移动到它的头提交 */
+            if (Worktree.isCheckedOutElsewhere(given.toString())) {
+                Checkout.reset(given.getHEADAsCommit());
+            } else {
+                checkoutBranch(given.toString());
+            }
             Methods.exit("Current branch fast-forwarded.");
         }
         /* 将分裂点 uid 解析成提交的实例 */
@@ -42,11 +48,18 @@ public class Merge {
         /* 分别得到当前和给定分支 branch 的 HEAD 头指针提交对象 */
         Commit cur = current.getHEADAsCommit();
         Commit tar = given.getHEADAsCommit();
+        /* 按两边的重命名对齐路径，之后逐个路径合并 */
+        if (renames) {
+            Commit[] aligned = alignRenames(sp, cur, tar);
+            sp = aligned[0];
+            cur = aligned[1];
+            tar = aligned[2];
+        }
         /* 取出当前提交跟踪的所有文件路径 */
         Set<String> files = new HashSet<>(cur.getBlobs().keySet());
         /* 再把给定提交的所有文件路径合并进去 */
         files.addAll(tar.getBlobs().keySet());
-        List<String> cwd = plainFilenamesIn(Repository.CWD);
+        List<String> cwd = FsMonitor.workingFiles();
         /* 如果工作区非空，把每个文件名转为绝对路径字符串加入集合 */
         if (cwd != null) {
             cwd.forEach(n -> files.add(join(Repository.CWD, n).getAbsolutePath()));
@@ -55,16 +68,69 @@ public class Merge {
         doMerge(files, sp, cur, tar, msg);
     }
 
+    /**
+     * 检测分裂点到两个分支的重命名，并把三个快照的路径对齐：
+     * <br>
+     * 如果给定分支把 A 重命名为 B，而当前分支仍然只有 A，
+     * 就在工作区和暂存区中把当前分支的 A 也移动到 B；
+     * <br>
+     * 如果当前分支把 A 重命名为 B，而给定分支仍然只有 A，就把给定分支的 A 看作 B
+     * <br>
+     * 这样一边重命名、另一边修改的文件会被当作同一个文件合并，而不是一个删除加一个新增
+     *
+     * @return 对齐后的分裂点、当前分支和给定分支的提交，只在内存中使用
+     */
+    private static Commit[] alignRenames(Commit split, Commit current, Commit given) {
+        List<Renames.Pair> ours = Renames.detect(split.getBlobs(), current.getBlobs(), false);
+        List<Renames.Pair> theirs = Renames.detect(split.getBlobs(), given.getBlobs(), false);
+        Set<String> ourSources = new HashSet<>();
+        Set<String> theirSources = new HashSet<>();
+        ours.forEach(p -> ourSources.add(p.getFrom()));
+        theirs.forEach(p -> theirSources.add(p.getFrom()));
+        Commit s = split;
+        Commit c = current;
+        Commit g = given;
+        Index idx = Methods.readStagingArea();
+        for (Renames.Pair p : theirs) {
+            if (ourSources.contains(p.getFrom()) || !current.getBlobs().containsKey(p.getFrom())
+                    || current.getBlobs().containsKey(p.getTo())) {
+                continue;
+            }
+            s = s.withRename(p.getFrom(), p.getTo());
+            c = c.withRename(p.getFrom(), p.getTo());
+            idx.remove(join(p.getFrom()));
+            take(c, join(p.getTo()), idx);
+        }
+        for (Renames.Pair p : ours) {
+            if (theirSources.contains(p.getFrom()) || !given.getBlobs().containsKey(p.getFrom())
+                    || given.getBlobs().containsKey(p.getTo())) {
+                continue;
+            }
+            s = s.withRename(p.getFrom(), p.getTo());
+            g = g.withRename(p.getFrom(), p.getTo());
+        }
+        return new Commit[] {s, c, g};
+    }
+
     /**
      * @return 两个分支之间第一个分裂点的提交的 uid
      */
     private static String getSplitPoint(Branch current, Branch given) {
         List<Commit> splits = new ArrayList<>();
         Set<String> commits = new HashSet<>();
-        /* 从当前分支的头指针 HEAD 开始，把它及其所有祖先 uid 加入 commits */
-        dfs(current.getHEADAsCommit(), commits, splits);
-        /* 从给定分支 HEAD 开始遍历，当遇到已在 commits 中的提交时，把该提交加入 splits */
-        dfs(given.getHEADAsCommit(), commits, splits);
+        /* 两个分支的历史同时在后台预读取 */
+        try (Prefetch p = Prefetch.walk(Repository.OBJECTS_DIR,
+                List.of(current.getHEADAsString(), given.getHEADAsString()))) {
+            /* 从当前分支的头指针 HEAD 开始，把它及其所有祖先 uid 加入 commits */
+            dfs(current.getHEADAsCommit(), commits, splits, p);
+            /* 从给定分支 HEAD 开始遍历，当遇到已在 commits 中的提交时，把该提交加入 splits */
+            dfs(given.getHEADAsCommit(), commits, splits, p);
+        }
+        if (splits.isEmpty()) {
+            /* 浅克隆的历史中可能找不到共同的祖先 */
+            Methods.exit("No common ancestor in the shallow history;"
+                    + " fetch more history before merging.");
+        }
         return splits.stream()
                 .max(Comparator.comparing(Commit::getDate))
                 .get()
@@ -77,13 +143,16 @@ public class Merge {
      * @param commits 一个存储所有祖先提交（包括自身）的集合
      */
     public static void findAllAncestors(Commit b, Set<String> commits) {
-        dfs(b, commits, null);
+        try (Prefetch p = Prefetch.walk(Repository.OBJECTS_DIR,
+                b == null ? List.of() : List.of(b.getUid()))) {
+            dfs(b, commits, null, p);
+        }
     }
 
     /**
-     * 深度优先搜索
+     * 深度优先搜索，父提交从预读取 P 中取得
      */
-    private static void dfs(Commit b, Set<String> commits, List<Commit> splits) {
+    private static void dfs(Commit b, Set<String> commits, List<Commit> splits, Prefetch p) {
         if (b == null) {
             return;
         }
@@ -95,8 +164,12 @@ public class Merge {
             return;
         }
         commits.add(b.getUid());
-        dfs(b.getParentAsCommit(), commits, splits);
-        dfs(b.getSecondParentAsCommit(), commits, splits);
+        /* 浅克隆的边界提交的父提交不在本地 */
+        if (Shallow.isBoundary(b.getUid())) {
+            return;
+        }
+        dfs(p.get(b.getParentAsString()), commits, splits, p);
+        dfs(p.get(b.getSecondParentAsString()), commits, splits, p);
     }
 
     private static void doMerge(Set<String> files, Commit split,
@@ -138,14 +211,26 @@ public class Merge {
                 return true;
             /* 给定分支相对分裂点有修改 */
             } else if (isModified(file, given, split)) {
-                checkoutFile(given, file);
-                index.add(file);
+                take(given, file, index);
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * 把提交 C 中的文件 F 检出到工作区并暂存
+     * 不在稀疏检出范围内的文件不写入工作区，只暂存它的 blob
+     */
+    private static void take(Commit c, File f, Index index) {
+        if (Sparse.includes(f)) {
+            checkoutFile(c, f);
+            index.add(f);
+        } else {
+            index.stageBlob(f, c.getBlob(f));
+        }
+    }
+
     /* 只在当前分支相对分裂点发生了修改，而给定分支中没变 */
     private static boolean onlyModifiedInCurrentBranch(File file, Commit current,
                                                        Commit given, Commit split, boolean flag) {
@@ -195,8 +280,7 @@ public class Merge {
         }
         if (split.getBlob(file) == null && current.getBlob(file) == null
                 && given.getBlob(file) != null) {
-            checkoutFile(given, file);
-            index.add(file);
+            take(given, file, index);
             return true;
         }
         return false;
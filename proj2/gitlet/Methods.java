@@ -2,6 +2,8 @@ package gitlet;
 
 import java.io.File;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
@@ -13,6 +15,13 @@ import static gitlet.Utils.*;
  */
 public class Methods {
 
+    /**
+     * 已经读取过的提交对象
+     * KEY 为提交的 40 位 uid
+     * 在后台进程中会跨命令保留
+     */
+    private static final Map<String, Commit> COMMITS_CACHE = new ConcurrentHashMap<>();
+
     /* 检查 .gitlet 目录是否存在，如果不存在，则返回错误信息 */
     public static void exitUnlessRepoExists() {
         File repo = join(CWD, ".gitlet");
@@ -53,11 +62,21 @@ public class Methods {
      * @return 存在的给定 uid 的 commit
      */
     public static Commit toCommit(String uid, File targetDir) {
+        /* 提交对象写入后不会再改变，本仓库中的完整 uid 可以直接使用缓存 */
+        boolean cacheable = uid != null && uid.length() == UID_LENGTH
+                && targetDir.equals(OBJECTS_DIR);
+        if (cacheable && COMMITS_CACHE.containsKey(uid)) {
+            return COMMITS_CACHE.get(uid);
+        }
         File c = getObject(uid, targetDir);
         if (c == null) {
             return null;
         }
-        return c.exists() ? readObject(c, Commit.class) : null;
+        Commit ret = c.exists() ? readObject(c, Commit.class) : null;
+        if (cacheable && ret != null) {
+            COMMITS_CACHE.put(uid, ret);
+        }
+        return ret;
     }
 
     /**
@@ -102,6 +121,11 @@ public class Methods {
         return obj;
     }
 
+    /* 清空提交对象的缓存，在对象被删除或改写之后调用 */
+    public static void clearCache() {
+        COMMITS_CACHE.clear();
+    }
+
     /* 更新 HEAD 指针，指向给定的 commit 并且更新当前 branch 信息 */
     public static void setHEAD(Commit commit, Branch b) {
         setHEAD(commit, b, GITLET_DIR);
@@ -118,7 +142,7 @@ public class Methods {
      * @return 当前 HEAD 指针所指向的 branch
      */
     public static Branch readHEADAsBranch() {
-        return readObject(HEAD, Branch.class);
+        return Daemon.cached(HEAD, Branch.class, f -> readObject(f, Branch.class), Branch::copy);
     }
 
     /**
@@ -149,10 +173,11 @@ public class Methods {
 
     /**
      * 读取 index 的配置
+     * 暂存区的修改都会直接写入文件，所以后台进程中缓存的对象不需要复制
      * @return index 对象
      */
     public static Index readStagingArea() {
-        return readObject(INDEX, Index.class);
+        return Daemon.cached(INDEX, Index.class, f -> Index.read(), i -> i);
     }
 
     /**
@@ -161,7 +186,7 @@ public class Methods {
      */
 
     public static Remote readRemotes() {
-        return readObject(REMOTES, Remote.class);
+        return Daemon.cached(REMOTES, Remote.class, f -> readObject(f, Remote.class), Remote::new);
     }
 
     /* 程序执行中退出，并输出错误信息 */
@@ -169,6 +194,10 @@ public class Methods {
         if (message != null) {
             System.out.println(message);
         }
+        /* 后台进程不能退出，改为抛出异常结束当前命令 */
+        if (Daemon.isRunning()) {
+            throw new GitletException(message);
+        }
         System.exit(0);
     }
 
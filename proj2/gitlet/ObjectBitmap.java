@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对象库中所有对象的位图，每个对象 id 对应一个位
+ * 对象 id 按字典序编号，可以被多个线程同时标记
+ *
+ * @author Kai Decker
+ */
+public class ObjectBitmap {
+
+    /* 按字典序排列的对象 id */
+    private final List<String> ids;
+
+    private final AtomicLongArray bits;
+
+    /**
+     * @param ids 按字典序排列的对象 id 列表，见 {@link Repository#objectIds}
+     */
+    public ObjectBitmap(List<String> ids) {
+        this.ids = ids;
+        this.bits = new AtomicLongArray((ids.size() + 63) / 64);
+    }
+
+    /**
+     * 标记对象 ID
+     *
+     * @return 对象存在且之前没有被标记时返回 true
+     */
+    public boolean mark(String id) {
+        int i = indexOf(id);
+        if (i < 0) {
+            return false;
+        }
+        long bit = 1L << (i & 63);
+        while (true) {
+            long old = bits.get(i >>> 6);
+            if ((old & bit) != 0) {
+                return false;
+            }
+            if (bits.compareAndSet(i >>> 6, old, old | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return 对象 ID 已经被标记时返回 true
+     */
+    public boolean isMarked(String id) {
+        int i = indexOf(id);
+        return i >= 0 && isMarked(i);
+    }
+
+    /**
+     * @return 第 I 个对象已经被标记时返回 true
+     */
+    public boolean isMarked(int i) {
+        return (bits.get(i >>> 6) & (1L << (i & 63))) != 0;
+    }
+
+    /**
+     * @return 第 I 个对象的 id
+     */
+    public String get(int i) {
+        return ids.get(i);
+    }
+
+    /**
+     * @return 对象的总数
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /* 二分查找对象 id 的编号，不存在时返回负数 */
+    private int indexOf(String id) {
+        int lo = 0;
+        int hi = ids.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = ids.get(mid).compareTo(id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,188 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * 表示 .gitlet/packed-refs 文件，即打包在一起的分支引用
+ * 每行为 "[commit id] [分支名]"，按分支的文件名（见 {@link Branch#correctName}）排序，
+ * 查找时使用二分查找，修改时整体写入临时文件后原子地替换
+ * <p>
+ * refs/heads 中的单个分支文件（loose ref）优先于 packed-refs 中的同名分支，
+ * 分支更新总是写入单个文件，使用命令 'pack-refs' 把它们打包
+ *
+ * @author Kai Decker
+ */
+public class PackedRefs {
+
+    public static final String FILE_NAME = "packed-refs";
+
+    /* 已经读取的 packed-refs，KEY 为文件路径，文件被修改后重新读取 */
+    private static final Map<File, PackedRefs> CACHE = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+
+    /* 分支的文件名，已排序，用于二分查找 */
+    private final String[] keys;
+    /* 分支名 */
+    private final String[] names;
+    /* 分支指向的提交 uid */
+    private final String[] ids;
+
+    private PackedRefs(File file, List<String[]> entries) {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+        entries.sort(Comparator.comparing(e -> Branch.correctName(e[1])));
+        keys = new String[entries.size()];
+        names = new String[entries.size()];
+        ids = new String[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            ids[i] = entries.get(i)[0];
+            names[i] = entries.get(i)[1];
+            keys[i] = Branch.correctName(names[i]);
+        }
+    }
+
+    /**
+     * 读取仓库 GITLETDIR 的 packed-refs，文件不存在时返回空的 packed-refs
+     */
+    public static PackedRefs read(File gitletDir) {
+        File f = join(gitletDir, FILE_NAME);
+        PackedRefs cached = CACHE.get(f);
+        if (cached != null && cached.lastModified == f.lastModified()
+                && cached.length == f.length()) {
+            return cached;
+        }
+        List<String[]> entries = new ArrayList<>();
+        if (f.isFile()) {
+            for (String line : readContentsAsString(f).split("\n")) {
+                int sp = line.indexOf(' ');
+                if (sp > 0) {
+                    entries.add(new String[] {line.substring(0, sp), line.substring(sp + 1)});
+                }
+            }
+        }
+        PackedRefs ret = new PackedRefs(f, entries);
+        CACHE.put(f, ret);
+        return ret;
+    }
+
+    /**
+     * 按分支的文件名 KEY 二分查找
+     *
+     * @return 分支在数组中的下标，不存在时返回负数
+     */
+    private int indexOf(String key) {
+        return Arrays.binarySearch(keys, key);
+    }
+
+    /**
+     * @return 分支 NAME 指向的提交 uid，不存在时返回 null
+     */
+    public String get(String name) {
+        int i = indexOf(Branch.correctName(name));
+        return i < 0 ? null : ids[i];
+    }
+
+    /**
+     * @return 分支 NAME 的原始名字（可能包含 "/"），不存在时返回 null
+     */
+    public String getName(String name) {
+        int i = indexOf(Branch.correctName(name));
+        return i < 0 ? null : names[i];
+    }
+
+    /**
+     * @return 所有分支的文件名，已排序
+     */
+    public List<String> keys() {
+        return Arrays.asList(keys);
+    }
+
+    /**
+     * 从 packed-refs 中删除分支 NAME
+     *
+     * @return 分支存在并且被删除时返回 true
+     */
+    public boolean remove(String name) {
+        int i = indexOf(Branch.correctName(name));
+        if (i < 0) {
+            return false;
+        }
+        Map<String, String> entries = toMap();
+        entries.remove(names[i]);
+        write(entries);
+        return true;
+    }
+
+    /**
+     * 把仓库 GITLETDIR 中 refs/heads 下的所有分支文件合并进 packed-refs，
+     * 然后删除这些分支文件
+     *
+     * @return 打包的分支数
+     */
+    public static int pack(File gitletDir) {
+        PackedRefs packed = read(gitletDir);
+        Map<String, String> entries = packed.toMap();
+        File heads = join(gitletDir, "refs", "heads");
+        List<String> loose = plainFilenamesIn(heads);
+        if (loose == null || loose.isEmpty()) {
+            return 0;
+        }
+        for (String n : loose) {
+            Branch b = readObject(join(heads, n), Branch.class);
+            /* 同一个分支只保留一个名字 */
+            String old = packed.getName(n);
+            if (old != null) {
+                entries.remove(old);
+            }
+            entries.put(b.getName(), b.getHEADAsString());
+        }
+        packed.write(entries);
+        loose.forEach(n -> join(heads, n).delete());
+        return loose.size();
+    }
+
+    /* 分支名到提交 uid 的映射 */
+    private Map<String, String> toMap() {
+        Map<String, String> ret = new TreeMap<>();
+        for (int i = 0; i < names.length; i++) {
+            ret.put(names[i], ids[i]);
+        }
+        return ret;
+    }
+
+    /* 先写入临时文件，再原子地替换 packed-refs */
+    private void write(Map<String, String> entries) {
+        List<String[]> list = new ArrayList<>();
+        entries.forEach((n, id) -> list.add(new String[] {id, n}));
+        PackedRefs sorted = new PackedRefs(file, list);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sorted.ids.length; i++) {
+            sb.append(sorted.ids[i]).append(' ').append(sorted.names[i]).append('\n');
+        }
+        File tmp = new File(file.getPath() + ".lock");
+        writeContents(tmp, sb.toString());
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Cannot update %s: %s", file, excp.getMessage());
+        }
+        CACHE.remove(file);
+    }
+}
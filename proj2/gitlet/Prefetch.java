@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+import static gitlet.Repository.*;
+
+/**
+ * 遍历提交历史时的预读取
+ * <p>
+ * 从一组起点提交开始，在一个小的线程池中按广度优先的顺序提前读取并反序列化父提交，
+ * 遍历的代码通过 {@link #get} 取得提交：已经读取的直接返回，正在读取的等待它完成，
+ * 还没有开始读取的就自己读取。所以遍历大多数时候不需要等待磁盘
+ * <br>
+ * 正在读取和读取完成但还没有被取走的提交合计最多 {@value #WINDOW} 个，遍历取走一个才开始读取下一个，
+ * 所以遍历跟不上时预读取会暂停，内存中最多保留 {@value #WINDOW} 个提交。
+ * 窗口已满而遍历需要的提交不在其中时（例如遍历跳过了一部分历史），
+ * 已经读取完成的提交被丢弃，之后真正需要时再由遍历自己读取
+ * <p>
+ * 使用结束后需要 {@link #close}，之后不会再开始新的读取，
+ * 遍历提前结束时（例如 log -n）多读取的只有已经开始的读取
+ *
+ * @author Kai Decker
+ */
+public class Prefetch implements AutoCloseable {
+
+    private static final int THREADS = 4;
+
+    /* 正在读取和已经读取但没有被取走的提交的最大数量 */
+    private static final int WINDOW = 64;
+
+    /* 所有遍历共享的线程池，不阻止程序退出 */
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread t = new Thread(r, "gitlet-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File objectsDir;
+    /* 不需要读取的提交，例如已经有位图的提交 */
+    private final Predicate<String> skip;
+    /* 只沿第一父提交预读取 */
+    private final boolean firstParent;
+
+    /* 以下字段由 this 保护 */
+    /* 已经开始读取、还没有被取走的提交，按开始读取的顺序 */
+    private final Map<String, CompletableFuture<Commit>> reads = new LinkedHashMap<>();
+    /* 等待读取的提交，按加入的顺序 */
+    private final Set<String> pending = new LinkedHashSet<>();
+    /* 已经加入过的提交 */
+    private final Set<String> seen = new HashSet<>();
+    private boolean closed;
+
+    private Prefetch(File objectsDir, Predicate<String> skip, boolean firstParent) {
+        this.objectsDir = objectsDir;
+        this.skip = skip;
+        this.firstParent = firstParent;
+    }
+
+    /**
+     * 开始预读取对象库 OBJECTSDIR 中从 FRONTIER 可达的提交
+     */
+    public static Prefetch walk(File objectsDir, Collection<String> frontier) {
+        return walk(objectsDir, frontier, id -> false);
+    }
+
+    /**
+     * 开始预读取对象库 OBJECTSDIR 中从 FRONTIER 可达的提交，
+     * 满足 SKIP 的提交和它的祖先不会被预读取
+     */
+    public static Prefetch walk(File objectsDir, Collection<String> frontier,
+                                Predicate<String> skip) {
+        Prefetch ret = new Prefetch(objectsDir, skip, false);
+        frontier.forEach(ret::offer);
+        return ret;
+    }
+
+    /**
+     * 开始预读取对象库 OBJECTSDIR 中从 START 沿第一父提交可达的提交，
+     * 用于不会读取合并提交的第二父提交的遍历
+     */
+    public static Prefetch walkFirstParent(File objectsDir, String start) {
+        Prefetch ret = new Prefetch(objectsDir, id -> false, true);
+        ret.offer(start);
+        return ret;
+    }
+
+    /**
+     * @return 提交 ID，不存在时返回 null
+     */
+    public Commit get(String id) {
+        CompletableFuture<Commit> f;
+        synchronized (this) {
+            f = reads.remove(id);
+            if (f == null) {
+                /* 还没有开始读取，由调用者自己读取 */
+                pending.remove(id);
+                seen.add(id);
+                if (reads.size() >= WINDOW) {
+                    /* 遍历没有取走窗口中的提交，丢弃已经读取完成的 */
+                    reads.values().removeIf(CompletableFuture::isDone);
+                }
+            }
+            pump();
+        }
+        if (f != null) {
+            try {
+                return f.join();
+            } catch (CompletionException excp) {
+                /* 在当前线程重新读取，让错误以同样的方式报告 */
+                return Methods.toCommit(id, objectsDir);
+            }
+        }
+        Commit c = Methods.toCommit(id, objectsDir);
+        expand(c);
+        return c;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        pending.clear();
+    }
+
+    /* 把提交 ID 加入等待读取的队列 */
+    private synchronized void offer(String id) {
+        if (closed || id == null || id.isEmpty() || !seen.add(id) || skip.test(id)) {
+            return;
+        }
+        pending.add(id);
+        pump();
+    }
+
+    /* 在窗口允许的范围内开始读取等待的提交 */
+    private synchronized void pump() {
+        Iterator<String> it = pending.iterator();
+        while (!closed && reads.size() < WINDOW && it.hasNext()) {
+            String id = it.next();
+            it.remove();
+            CompletableFuture<Commit> f = new CompletableFuture<>();
+            reads.put(id, f);
+            POOL.execute(() -> load(id, f));
+        }
+    }
+
+    private void load(String id, CompletableFuture<Commit> f) {
+        Commit c;
+        try {
+            c = Methods.toCommit(id, objectsDir);
+        } catch (RuntimeException excp) {
+            c = null;
+            f.completeExceptionally(excp);
+        }
+        synchronized (this) {
+            if (c == null) {
+                /* 没有可以取走的提交 */
+                reads.remove(id, f);
+                pump();
+            }
+        }
+        f.complete(c);
+        expand(c);
+    }
+
+    /* 预读取提交 C 的父提交 */
+    private void expand(Commit c) {
+        if (c == null || objectsDir.equals(OBJECTS_DIR) && Shallow.isBoundary(c.getUid())) {
+            return;
+        }
+        offer(c.getParentAsString());
+        if (!firstParent) {
+            offer(c.getSecondParentAsString());
+        }
+    }
+}
@@ -2,12 +2,14 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import static gitlet.Merge.findAllAncestors;
 import static gitlet.Repository.OBJECTS_DIR;
 import static gitlet.Utils.*;
 
@@ -19,6 +21,9 @@ import static gitlet.Utils.*;
 
 public class Remote implements Serializable {
 
+    /* 固定序列化版本，保证旧仓库中的远程仓库配置仍然可以被读取 */
+    private static final long serialVersionUID = -6823964499975837003L;
+
     /**
      * KEY 为远程仓库的名字
      * VALUE 为远程仓库的目录路径
@@ -30,25 +35,64 @@ public class Remote implements Serializable {
         remotes = new HashMap<>();
     }
 
+    /* 复制 OTHER 的远程仓库配置，见 Daemon#cached */
+    Remote(Remote other) {
+        remotes = new HashMap<>(other.remotes);
+    }
+
     /**
-     * 将给定分支中的所有新对象
-     * 从该分支所在的仓库移动到目标仓库
+     * 将从 WANT 可达但从 HAVE 不可达的对象中目标仓库还没有的对象
+     * 从源仓库移动到目标仓库，二者都按源仓库的位图索引计算
      */
     private static void moveObjects(File sourceObjectsDir, File targetObjectsDir,
-                                    Branch branch, Set<String> ancestors) {
-        String branchHEAD = branch.getHEADAsString();
-        for (String commit : ancestors) {
-            moveObject(sourceObjectsDir, targetObjectsDir, commit);
-            Methods.toCommit(commit, targetObjectsDir)
-                    .getBlobs()
-                    .values()
-                    .forEach(objID -> moveObject(sourceObjectsDir, targetObjectsDir, objID));
-            if (commit.equals(branchHEAD)) {
-                break;
+                                    String want, String have) {
+        File sourceRepo = sourceObjectsDir.getParentFile();
+        Set<String> manifests = Chunks.manifests(sourceRepo);
+        BitmapIndex index = BitmapIndex.read(sourceRepo);
+        BitmapIndex.Closure wanted = index.closure(List.of(want), sourceObjectsDir, manifests);
+        List<String> haves = have == null ? List.of() : List.of(have);
+        BitmapIndex.Closure had = index.closure(haves, sourceObjectsDir, manifests);
+        for (String id : wanted.andNot(had)) {
+            if (join(targetObjectsDir, id.substring(0, 2), id.substring(2)).exists()) {
+                continue;
+            }
+            moveObject(sourceObjectsDir, targetObjectsDir, id);
+            if (manifests.contains(id)) {
+                Chunks.register(targetObjectsDir.getParentFile(), id);
             }
         }
     }
 
+    /* 将一个提交及其快照 blob 从源仓库移动到目标仓库 */
+    private static void moveCommit(File sourceObjectsDir, File targetObjectsDir, String commit,
+                                   Set<String> manifests) {
+        moveObject(sourceObjectsDir, targetObjectsDir, commit);
+        Methods.toCommit(commit, targetObjectsDir)
+                .getBlobs()
+                .values()
+                .forEach(objID -> moveBlob(sourceObjectsDir, targetObjectsDir, objID, manifests));
+    }
+
+    /**
+     * 将快照 blob 从源仓库移动到目标仓库
+     * 大文件的清单（在 MANIFESTS 中）还需要移动它的块，并记录在目标仓库的清单列表中
+     */
+    private static void moveBlob(File sourceObjectsDir, File targetObjectsDir, String id,
+                                 Set<String> manifests) {
+        moveObject(sourceObjectsDir, targetObjectsDir, id);
+        if (!manifests.contains(id)) {
+            return;
+        }
+        Blob b = readObject(join(targetObjectsDir, id.substring(0, 2), id.substring(2)),
+                Blob.class);
+        for (String chunk : b.getChunks()) {
+            if (!join(targetObjectsDir, chunk.substring(0, 2), chunk.substring(2)).exists()) {
+                moveObject(sourceObjectsDir, targetObjectsDir, chunk);
+            }
+        }
+        Chunks.register(targetObjectsDir.getParentFile(), id);
+    }
+
     /**
      * 将对象（提交或快照）从源仓库移动到目标仓库
      *
@@ -70,27 +114,35 @@ public class Remote implements Serializable {
      * 如果该分支在本地仓库中先前不存在，则会创建它
      */
     public void fetch(String remoteName, Branch branch) {
+        fetch(remoteName, branch, 0);
+    }
+
+    /**
+     * 同上，DEPTH 大于 0 时只复制分支最近的 DEPTH 层提交，并记录浅克隆的边界
+     */
+    public void fetch(String remoteName, Branch branch, int depth) {
         File sourceRepo = remotes.get(remoteName);
         /* 若调用者传入的“想 fetch 的远程分支”不存在，报错退出 */
         if (branch == null) {
             Methods.exit("That remote does not have that branch.");
         }
 
-        /*
-        * 获取远程活动分支中的所有提交
-        * 定位远程对象库
-        */
+        /* 定位远程对象库 */
         File sourceObjectsDir = join(sourceRepo, "objects");
-        /* 读取远程对象的 HEAD */
-        Commit sourceHEAD = Methods.toCommit(
-                readObject(join(sourceRepo, "HEAD"), Branch.class).getHEADAsString(),
-                sourceObjectsDir);
-        /* 收集远端当前活动分支的所有祖先提交的 id，插入顺序保留 */
-        Set<String> ancestors = new LinkedHashSet<>();
-        findAllAncestors(sourceHEAD, ancestors);
-
-        /* 把这些提交及其快照 blob 从远端复制到本地对象库 */
-        moveObjects(sourceObjectsDir, OBJECTS_DIR, branch, ancestors);
+        Set<String> boundaries = new HashSet<>();
+        if (depth > 0) {
+            boundaries = fetchShallow(sourceObjectsDir, branch, depth);
+        } else {
+            /* 本地历史是浅克隆时，上一次 fetch 的提交的祖先仍然可能缺失 */
+            String branchName = remoteName + "/" + branch;
+            String have = Branch.isExists(branchName) && !Shallow.FILE.exists()
+                    ? Branch.readBranch(branchName).getHEADAsString() : null;
+            moveObjects(sourceObjectsDir, OBJECTS_DIR, branch.getHEADAsString(), have);
+        }
+        /* 记录新的边界，并移除父提交已经被复制的旧边界 */
+        if (!boundaries.isEmpty() || Shallow.FILE.exists()) {
+            Shallow.update(boundaries);
+        }
         String branchName = remoteName + "/" + branch;
         Branch nb;
         if (!Branch.isExists(branchName)) {
@@ -103,20 +155,65 @@ public class Remote implements Serializable {
         writeObject(join(Repository.BRANCHES_DIR, nb.toString()), nb);
     }
 
+    /**
+     * 从分支 BRANCH 的头提交开始按层复制 DEPTH 层提交及其快照 blob，
+     * 本地已经存在的提交不会被复制，不是浅克隆边界时它的祖先也不会被复制
+     *
+     * @return 父提交没有被复制并且本地也不存在的提交，即新的浅克隆边界
+     */
+    private static Set<String> fetchShallow(File sourceObjectsDir, Branch branch, int depth) {
+        Set<String> manifests = Chunks.manifests(sourceObjectsDir.getParentFile());
+        Set<String> copied = new LinkedHashSet<>();
+        Set<String> seen = new HashSet<>();
+        List<String> level = List.of(branch.getHEADAsString());
+        for (int d = 0; d < depth && !level.isEmpty(); d++) {
+            List<String> next = new ArrayList<>();
+            for (String id : level) {
+                if (!seen.add(id)) {
+                    continue;
+                }
+                /* 本地已有的提交不再复制，但它是边界时继续向下一层加深 */
+                if (Repository.getObjectFile(id).exists()) {
+                    if (!Shallow.isBoundary(id)) {
+                        continue;
+                    }
+                } else {
+                    moveCommit(sourceObjectsDir, OBJECTS_DIR, id, manifests);
+                    copied.add(id);
+                }
+                Commit c = Methods.toCommit(id);
+                for (String p : new String[] {c.getParentAsString(), c.getSecondParentAsString()}) {
+                    if (p != null && !p.isEmpty()) {
+                        next.add(p);
+                    }
+                }
+            }
+            level = next;
+        }
+        Set<String> ret = new HashSet<>();
+        for (String id : copied) {
+            if (!Shallow.isComplete(id)) {
+                ret.add(id);
+            }
+        }
+        return ret;
+    }
+
     /* 尝试将当前分支的提交追加到给定远程仓库中指定分支的末尾 */
     public void push(String remoteName, Branch branch) {
         /* 获取本地的当前分支提交 */
         File target = remotes.get(remoteName);
-        Set<String> ancestors = new LinkedHashSet<>();
         Commit currentHEAD = Methods.readHEADAsCommit();
-        findAllAncestors(currentHEAD, ancestors);
         String branchHEAD = branch.getHEADAsString();
+        File gitletDir = Repository.COMMON_DIR;
+        BitmapIndex.Closure ancestors = BitmapIndex.read(gitletDir).closure(
+                List.of(currentHEAD.getUid()), OBJECTS_DIR, Chunks.manifests(gitletDir));
         if (!ancestors.contains(branchHEAD)) {
             Methods.exit("Please pull down remote changes before pushing.");
         }
 
-        /* 移动到远程仓库 */
-        moveObjects(OBJECTS_DIR, join(target, "objects"), branch, ancestors);
+        /* 移动到远程仓库，远程分支已经可达的对象不需要检查 */
+        moveObjects(OBJECTS_DIR, join(target, "objects"), currentHEAD.getUid(), branchHEAD);
         Methods.setHEAD(currentHEAD, Methods.readHEADAsBranch(), target);
     }
 
@@ -0,0 +1,357 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * 检测两个快照之间的重命名和复制
+ * <p>
+ * 内容相同的文件直接按 blob id 配对；内容有改动的文件使用 MinHash 草图估计相似度：
+ * 每个 blob 的内容被切成 {@value #SHINGLE} 个字符的片段，
+ * 草图记录 {@value #HASHES} 个哈希函数在这些片段上的最小值，两个草图相同位置相等的比例即为
+ * 片段集合的 Jaccard 相似度的估计
+ * <br>
+ * 草图被分成若干段 (LSH banding)，只有至少一段完全相同的文件才会被比较，
+ * 所以检测的代价接近线性，而不需要两两比较所有的文件
+ * <p>
+ * blob 的内容不会改变，所以草图按 blob id 缓存在 .gitlet/sketches 中
+ *
+ * @author Kai Decker
+ */
+public class Renames {
+
+    /** 判断为重命名或复制的最低相似度（百分比） */
+    public static final int THRESHOLD = 50;
+
+    /* 每个片段的字符数 */
+    private static final int SHINGLE = 5;
+    /* 草图中哈希函数的个数 */
+    private static final int HASHES = 64;
+    /* 每段的哈希个数，共 HASHES / ROWS 段 */
+    private static final int ROWS = 2;
+
+    /* 每个哈希函数的种子 */
+    private static final int[] SEEDS = new int[HASHES];
+
+    static {
+        int s = 0x9e3779b9;
+        for (int i = 0; i < HASHES; i++) {
+            s = mix(s + 0x9e3779b9);
+            SEEDS[i] = s;
+        }
+    }
+
+    private static final File CACHE_FILE = join(Repository.COMMON_DIR, "sketches");
+
+    /* 已经计算的草图，KEY 为 blob id */
+    private static final Map<String, int[]> SKETCHES = new ConcurrentHashMap<>();
+    private static boolean loaded;
+    private static volatile boolean dirty;
+
+    /* 缓存文件的内容 */
+    private static class SketchCache implements Serializable {
+        /* 固定序列化版本，重新编译之后已有的 sketches 文件仍然可以被读取 */
+        private static final long serialVersionUID = -7361622800845901049L;
+
+        private final HashMap<String, int[]> sketches;
+
+        SketchCache(Map<String, int[]> sketches) {
+            this.sketches = new HashMap<>(sketches);
+        }
+    }
+
+    /** 一次重命名或复制 */
+    public static class Pair {
+        private final String from;
+        private final String to;
+        private final int score;
+        private final boolean copy;
+
+        Pair(String from, String to, int score, boolean copy) {
+            this.from = from;
+            this.to = to;
+            this.score = score;
+            this.copy = copy;
+        }
+
+        /** @return 原来的路径 */
+        public String getFrom() {
+            return from;
+        }
+
+        /** @return 新的路径 */
+        public String getTo() {
+            return to;
+        }
+
+        /** @return 相似度（百分比） */
+        public int getScore() {
+            return score;
+        }
+
+        /** @return 是复制（原来的文件仍然存在）时返回 true */
+        public boolean isCopy() {
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return new File(from).getName() + " -> " + new File(to).getName()
+                    + (copy ? " (copy, " : " (") + score + "%)";
+        }
+    }
+
+    /**
+     * 检测从快照 BEFORE 到快照 AFTER 的重命名，COPIES 为 true 时也检测复制
+     * 快照为文件路径到 blob id 的映射，AFTER 中的 blob 不在对象库中时从工作区的文件读取内容
+     *
+     * @return 检测到的重命名和复制，按新的路径排序
+     */
+    public static List<Pair> detect(Map<String, String> before, Map<String, String> after,
+                                    boolean copies) {
+        List<String> deleted = new ArrayList<>();
+        List<String> added = new ArrayList<>();
+        for (String p : new TreeSet<>(before.keySet())) {
+            if (!after.containsKey(p)) {
+                deleted.add(p);
+            }
+        }
+        for (String p : new TreeSet<>(after.keySet())) {
+            if (!before.containsKey(p)) {
+                added.add(p);
+            }
+        }
+        List<Pair> ret = new ArrayList<>();
+        if (added.isEmpty()) {
+            return ret;
+        }
+        Set<String> used = new HashSet<>();
+        match(deleted, before, added, after, used, false, ret);
+        if (copies && used.size() < added.size()) {
+            List<String> sources = new ArrayList<>(new TreeSet<>(before.keySet()));
+            match(sources, before, added, after, used, true, ret);
+        }
+        save();
+        ret.sort(Comparator.comparing(Pair::getTo));
+        return ret;
+    }
+
+    /**
+     * 为 ADDED 中尚未配对（不在 USED 中）的文件在 SOURCES 中寻找来源，结果加入 RET
+     * 重命名时每个来源只能使用一次，复制时可以使用多次
+     */
+    private static void match(List<String> sources, Map<String, String> before,
+                              List<String> added, Map<String, String> after,
+                              Set<String> used, boolean copy, List<Pair> ret) {
+        /* 内容完全相同的文件按 blob id 配对 */
+        Map<String, List<String>> byBlob = new HashMap<>();
+        for (String s : sources) {
+            byBlob.computeIfAbsent(before.get(s), k -> new ArrayList<>()).add(s);
+        }
+        Set<String> taken = new HashSet<>();
+        List<String> left = new ArrayList<>();
+        for (String a : added) {
+            if (used.contains(a)) {
+                continue;
+            }
+            List<String> same = byBlob.get(after.get(a));
+            if (same != null && !same.isEmpty()) {
+                String s = copy ? same.get(0) : same.remove(0);
+                taken.add(s);
+                used.add(a);
+                ret.add(new Pair(s, a, 100, copy));
+            } else {
+                left.add(a);
+            }
+        }
+        List<String> candidates = new ArrayList<>();
+        for (String s : sources) {
+            if (copy || !taken.contains(s)) {
+                candidates.add(s);
+            }
+        }
+        if (left.isEmpty() || candidates.isEmpty()) {
+            return;
+        }
+
+        /* 计算草图，并把来源按每一段的哈希放入桶中 */
+        int[][] src = new int[candidates.size()][];
+        int[][] dst = new int[left.size()][];
+        IntStream.range(0, src.length).parallel().forEach(i ->
+                src[i] = sketch(before.get(candidates.get(i)), candidates.get(i)));
+        IntStream.range(0, dst.length).parallel().forEach(i ->
+                dst[i] = sketch(after.get(left.get(i)), left.get(i)));
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < src.length; i++) {
+            if (src[i] != null) {
+                for (int b = 0; b < HASHES / ROWS; b++) {
+                    buckets.computeIfAbsent(band(src[i], b), k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        /* 只比较至少有一段相同的文件，从最相似的开始贪心地配对 */
+        List<int[]> pairs = new ArrayList<>();
+        for (int j = 0; j < dst.length; j++) {
+            if (dst[j] == null) {
+                continue;
+            }
+            Set<Integer> seen = new HashSet<>();
+            for (int b = 0; b < HASHES / ROWS; b++) {
+                for (int i : buckets.getOrDefault(band(dst[j], b), List.of())) {
+                    if (seen.add(i)) {
+                        int score = similarity(src[i], dst[j]);
+                        if (score >= THRESHOLD) {
+                            pairs.add(new int[] {score, i, j});
+                        }
+                    }
+                }
+            }
+        }
+        pairs.sort((x, y) -> x[0] != y[0] ? Integer.compare(y[0], x[0])
+                : x[1] != y[1] ? Integer.compare(x[1], y[1]) : Integer.compare(x[2], y[2]));
+        boolean[] srcUsed = new boolean[src.length];
+        for (int[] p : pairs) {
+            String s = candidates.get(p[1]);
+            String a = left.get(p[2]);
+            if (used.contains(a) || (!copy && srcUsed[p[1]])) {
+                continue;
+            }
+            srcUsed[p[1]] = true;
+            used.add(a);
+            ret.add(new Pair(s, a, p[0], copy));
+        }
+    }
+
+    /* 草图第 B 段的哈希 */
+    private static long band(int[] sketch, int b) {
+        long h = 0;
+        for (int r = 0; r < ROWS; r++) {
+            h = h * 31 + sketch[b * ROWS + r];
+        }
+        return ((long) b << 56) ^ h;
+    }
+
+    /* 两个草图相同位置相等的比例（百分比） */
+    private static int similarity(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[i] == b[i]) {
+                same++;
+            }
+        }
+        return same * 100 / HASHES;
+    }
+
+    /**
+     * @return blob BLOB 的草图，内容为空时返回 null
+     */
+    private static int[] sketch(String blob, String path) {
+        load();
+        int[] ret = SKETCHES.get(blob);
+        if (ret != null) {
+            return ret;
+        }
+        String content = content(blob, path);
+        if (content == null || content.isEmpty()) {
+            return null;
+        }
+        ret = minHash(content);
+        SKETCHES.put(blob, ret);
+        dirty = true;
+        return ret;
+    }
+
+    /* blob 的内容，不在对象库中时读取工作区的文件 PATH */
+    private static String content(String blob, String path) {
+        Blob b = Methods.toBlob(blob);
+        if (b != null) {
+            return b.getContent();
+        }
+        File f = new File(path);
+        return f.isFile() ? readContentsAsString(f) : null;
+    }
+
+    /* 计算内容的 MinHash 草图 */
+    private static int[] minHash(String content) {
+        int[] ret = new int[HASHES];
+        Arrays.fill(ret, Integer.MAX_VALUE);
+        int n = Math.max(1, content.length() - SHINGLE + 1);
+        int pow = 1;
+        for (int i = 1; i < SHINGLE; i++) {
+            pow *= 31;
+        }
+        int h = 0;
+        for (int i = 0; i < Math.min(SHINGLE, content.length()); i++) {
+            h = h * 31 + content.charAt(i);
+        }
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                h = (h - content.charAt(i - 1) * pow) * 31 + content.charAt(i + SHINGLE - 1);
+            }
+            for (int k = 0; k < HASHES; k++) {
+                int v = mix(h ^ SEEDS[k]);
+                if (v < ret[k]) {
+                    ret[k] = v;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /* MurmurHash3 的 fmix32 */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /* 第一次使用时读取缓存文件 */
+    private static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (CACHE_FILE.isFile()) {
+            try {
+                SKETCHES.putAll(readObject(CACHE_FILE, SketchCache.class).sketches);
+            } catch (IllegalArgumentException excp) {
+                /* 缓存损坏时重新计算 */
+            }
+        }
+    }
+
+    /**
+     * 删除草图缓存，用于 migrate 改变了 blob id 之后
+     */
+    public static synchronized void clearCache() {
+        SKETCHES.clear();
+        loaded = true;
+        dirty = false;
+        CACHE_FILE.delete();
+    }
+
+    /* 有新的草图时写回缓存文件 */
+    private static synchronized void save() {
+        if (dirty && Repository.COMMON_DIR.isDirectory()) {
+            writeObject(CACHE_FILE, new SketchCache(SKETCHES));
+            dirty = false;
+        }
+    }
+}
@@ -2,7 +2,17 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static gitlet.Utils.*;
 
@@ -16,6 +26,14 @@ import static gitlet.Utils.*;
  * <br>│ └── heads/
  * <br>├── objects/
  * <br>├── HEAD
+ * <br>├── packed-refs
+ * <br>├── shallow（浅克隆的边界，见 Shallow）
+ * <br>├── blame/（blame 的缓存）
+ * <br>├── manifests（大文件的清单，见 Chunks）
+ * <br>├── sparse-checkout（可选，见 Sparse）
+ * <br>├── bitmaps（可达性位图索引，见 BitmapIndex）
+ * <br>├── worktrees/（附加的工作区的 HEAD 和暂存区，见 Worktree）
+ * <br>├── format（blob 只按内容寻址的标记）
  * <br>└── index
  *
  * @author Kai Decker
@@ -26,11 +44,17 @@ public class Repository implements Serializable {
     /** 当前项目的根目录 */
     public static final File CWD = new File(System.getProperty("user.dir"));
 
-    /** .gitlet 的根目录 */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
+    /**
+     * 当前工作区的 .gitlet 目录，保存 HEAD 和暂存区
+     * 附加的工作区中 .gitlet 是一个文件，记录这个目录的路径（见 Worktree）
+     */
+    public static final File GITLET_DIR = gitletDir();
+
+    /** 所有工作区共享的 .gitlet 目录，保存对象库、分支和各种缓存 */
+    public static final File COMMON_DIR = commonDir();
 
     /** 存储 Gitlet 引用信息的目录 */
-    public static final File REFS_DIR = join(GITLET_DIR, "refs");
+    public static final File REFS_DIR = join(COMMON_DIR, "refs");
 
     /** 存储各个分支信息的目录 */
     public static final File BRANCHES_DIR = join(REFS_DIR, "heads");
@@ -42,7 +66,10 @@ public class Repository implements Serializable {
     public static final File REMOTES = join(REFS_DIR, "remotes");
 
     /** 存储 Gitlet 对象（比如 blobs 和 commits 等）的目录 */
-    public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
+    public static final File OBJECTS_DIR = join(COMMON_DIR, "objects");
+
+    /** 存在时表示对象库中的 blob 都只按内容寻址，见 {@link #checkFormat()} */
+    public static final File FORMAT = join(COMMON_DIR, "format");
 
     /** Gitlet 的 HEAD 指针，指向当前分支 */
     public static final File HEAD = join(GITLET_DIR, "HEAD");
@@ -50,6 +77,18 @@ public class Repository implements Serializable {
     /** 存储当前暂存区（已添加文件和已删除文件）的索引对象 */
     public static final File INDEX = join(GITLET_DIR, "index");
 
+    /* 当前工作区的 .gitlet 目录 */
+    private static File gitletDir() {
+        File f = join(CWD, ".gitlet");
+        return f.isFile() ? new File(readContentsAsString(f).trim()) : f;
+    }
+
+    /* 共享的 .gitlet 目录，附加的工作区的 .gitlet 目录中的 commondir 文件记录它的路径 */
+    private static File commonDir() {
+        File f = join(GITLET_DIR, "commondir");
+        return f.isFile() ? new File(readContentsAsString(f).trim()) : GITLET_DIR;
+    }
+
     /** 在当前的目录创建一个新的 Gitlet 版本控制系统 */
     public static void initializeRepo() {
         /* 创建目录的列表 */
@@ -63,11 +102,13 @@ public class Repository implements Serializable {
         /* 更新分支 */
         h.updateBranch();
         /* 创建空的暂存区索引 */
-        writeObject(INDEX, new Index());
+        Index.create();
         /* 创建空的远程仓库 */
         writeObject(REMOTES, new Remote());
         /* 创建空的提交历史 */
         writeContents(COMMITS, "");
+        /* 新仓库的 blob 只按内容寻址 */
+        writeContents(FORMAT, "");
     }
 
     /** 删除 DIR 目录里的所有文件 */
@@ -76,7 +117,11 @@ public class Repository implements Serializable {
         List<String> files = plainFilenamesIn(dir);
         if (files != null) {
             /* 如果文件存在，则删除 */
-            files.forEach(n -> join(dir, n).delete());
+            files.stream().filter(FsMonitor::isWorkingFile).forEach(n -> {
+                File f = join(dir, n);
+                f.delete();
+                FsMonitor.touched(f);
+            });
         }
     }
 
@@ -94,6 +139,32 @@ public class Repository implements Serializable {
         return id.substring(2);
     }
 
+    /** 根据对象的 id 获取对象文件，不创建目录 */
+    public static File getObjectFile(String id) {
+        return join(getObjectsDir(id), getObjectName(id));
+    }
+
+    /**
+     * 列出对象库中所有对象的 id
+     *
+     * @return 按字典序排列的对象 id 列表
+     */
+    public static List<String> objectIds() {
+        List<String> ids = new ArrayList<>();
+        String[] dirs = OBJECTS_DIR.list();
+        if (dirs == null) {
+            return ids;
+        }
+        Arrays.sort(dirs);
+        for (String dir : dirs) {
+            List<String> names = plainFilenamesIn(join(OBJECTS_DIR, dir));
+            if (names != null) {
+                names.forEach(n -> ids.add(dir + n));
+            }
+        }
+        return ids;
+    }
+
     /** 使用对象的 id 创建一个新的 commit 对象或者 blob 对象的存储目录 */
     public static File makeObjectDir(String id) {
         File out = getObjectsDir(id);
@@ -101,6 +172,143 @@ public class Repository implements Serializable {
         return join(out, getObjectName(id));
     }
 
+    /**
+     * 把旧仓库中按 "内容 + 文件名" 寻址的 blob 迁移为只按内容寻址
+     * 从所有分支（包括远程跟踪分支）、每个工作区的 HEAD 和提交列表出发找到所有提交，
+     * 依次改写它们和暂存区中的快照映射，最后删除不再使用的旧 blob
+     * 提交的 uid 不依赖 blob id，所以分支和 HEAD 不需要改动
+     */
+    public static void migrateBlobs() {
+        List<Commit> commits = allCommits();
+        Index idx = Methods.readStagingArea();
+        Map<String, String> added = idx.getAdded();
+        /* KEY 为被引用的 blob id，VALUE 为迁移后的 id，新格式的 blob 映射到自己 */
+        Map<String, String> renamed = migratedIds(commits, added);
+        Blob.writeMigrated(renamed);
+        for (Commit c : commits) {
+            Map<String, String> blobs = new HashMap<>(c.getBlobs());
+            if (migrateSnapshot(blobs, renamed)) {
+                c.setBlobs(blobs);
+                writeObject(makeObjectDir(c.getUid()), c);
+            }
+        }
+        if (migrateSnapshot(added, renamed)) {
+            added.forEach(idx::updateBlob);
+        }
+        /* 旧 id 可能正是另一个 blob 的新 id，它的文件已经被新 blob 覆盖 */
+        Set<String> kept = new HashSet<>(renamed.values());
+        kept.addAll(Worktree.stagedBlobs());
+        renamed.keySet().stream().filter(id -> !kept.contains(id))
+                .forEach(id -> getObjectFile(id).delete());
+        /* 位图、blame 和草图缓存中记录的都是旧 id */
+        Methods.clearCache();
+        Blame.clearCache();
+        Renames.clearCache();
+        BitmapIndex.write();
+        writeContents(FORMAT, "");
+    }
+
+    /**
+     * 旧仓库中的 blob 按 "内容 + 文件名" 寻址，和新的 blob id 不能比较，
+     * 所以在旧仓库中执行其他命令之前要求先执行 migrate
+     * 检查通过后写入 FORMAT，之后不再检查
+     */
+    public static void checkFormat() {
+        if (FORMAT.exists() || !OBJECTS_DIR.isDirectory()) {
+            return;
+        }
+        /* 只有内容哈希和 id 不一致的 blob 才可能是旧格式的 */
+        Set<String> mismatched = objectIds().parallelStream()
+                .filter(Repository::isMismatchedBlob).collect(Collectors.toSet());
+        if (!mismatched.isEmpty()) {
+            List<Map<String, String>> snapshots = new ArrayList<>();
+            allCommits().forEach(c -> snapshots.add(c.getBlobs()));
+            snapshots.add(Methods.readStagingArea().getAdded());
+            for (Map<String, String> snapshot : snapshots) {
+                for (Map.Entry<String, String> e : snapshot.entrySet()) {
+                    if (mismatched.contains(e.getValue()) && !e.getValue().equals(
+                            Blob.migratedId(e.getValue(), join(e.getKey()).getName()))) {
+                        Methods.exit("This repository uses the old blob format;"
+                                + " run 'migrate' first.");
+                    }
+                }
+            }
+        }
+        writeContents(FORMAT, "");
+    }
+
+    /* 对象 ID 是否是内容哈希和 id 不一致的普通 blob */
+    private static boolean isMismatchedBlob(String id) {
+        Object obj;
+        try {
+            obj = readObject(getObjectFile(id), Serializable.class);
+        } catch (IllegalArgumentException excp) {
+            return false;
+        }
+        return obj instanceof Blob && ((Blob) obj).getChunks() == null && !((Blob) obj).verify(id);
+    }
+
+    /* 从所有分支（包括远程跟踪分支）、每个工作区的 HEAD 和提交列表出发能到达的所有提交 */
+    static List<Commit> allCommits() {
+        Deque<String> stack = new ArrayDeque<>(Commit.findAllIds());
+        GarbageCollect.findRoots().stream().filter(Objects::nonNull).forEach(stack::push);
+        Set<String> seen = new HashSet<>();
+        List<Commit> ret = new ArrayList<>();
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            if (id.isEmpty() || !seen.add(id)) {
+                continue;
+            }
+            /* 浅克隆的边界提交的父提交不在本地 */
+            Commit c = Methods.toCommit(id);
+            if (c != null) {
+                ret.add(c);
+                for (String p : new String[] {c.getParentAsString(), c.getSecondParentAsString()}) {
+                    if (p != null) {
+                        stack.push(p);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 检查 COMMITS 和暂存区 ADDED 引用的每个 blob 是否是旧格式的
+     *
+     * @return KEY 为被引用的 blob id，VALUE 为迁移后的 id
+     */
+    private static Map<String, String> migratedIds(List<Commit> commits,
+                                                   Map<String, String> added) {
+        Map<String, String> ret = new HashMap<>();
+        List<Map<String, String>> snapshots = new ArrayList<>();
+        commits.forEach(c -> snapshots.add(c.getBlobs()));
+        snapshots.add(added);
+        for (Map<String, String> snapshot : snapshots) {
+            snapshot.forEach((path, id) -> ret.computeIfAbsent(id,
+                    k -> Blob.migratedId(k, join(path).getName())));
+        }
+        return ret;
+    }
+
+    /**
+     * 将快照映射中的每个 blob id 替换为迁移后的 id
+     *
+     * @return 快照映射被修改则返回 true
+     */
+    private static boolean migrateSnapshot(Map<String, String> snapshot,
+                                           Map<String, String> renamed) {
+        boolean changed = false;
+        for (Map.Entry<String, String> e : snapshot.entrySet()) {
+            String newId = renamed.get(e.getValue());
+            if (!newId.equals(e.getValue())) {
+                e.setValue(newId);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
     /** 获取远程仓库的分支目录 */
     public static File getRemoteBranchDir(String name) {
         return join(Methods.readRemotes().getRemote(name), "refs", "heads");
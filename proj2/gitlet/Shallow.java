@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * 表示浅克隆的边界，即 .gitlet/shallow 文件
+ * <p>
+ * fetch --depth N 只复制分支最近的 N 层提交，最早一层中父提交没有被复制的提交称为边界，
+ * 每行记录一个边界提交的 uid。log、合并时寻找分裂点、fsck 和 blame
+ * 都把边界提交看作没有父提交，而不是去读取不存在的对象
+ * <br>
+ * 之后的 fetch 复制了边界提交的父提交时，这个边界会被移除
+ *
+ * @author Kai Decker
+ */
+public class Shallow {
+
+    public static final File FILE = join(Repository.COMMON_DIR, "shallow");
+
+    /* 已经读取的边界，文件被修改后重新读取 */
+    private static Set<String> boundaries;
+    private static long lastModified = -1;
+    private static long length = -1;
+
+    /**
+     * @return 所有边界提交的 uid
+     */
+    public static synchronized Set<String> read() {
+        if (!FILE.isFile()) {
+            return new TreeSet<>();
+        }
+        if (boundaries == null || lastModified != FILE.lastModified()
+                || length != FILE.length()) {
+            lastModified = FILE.lastModified();
+            length = FILE.length();
+            boundaries = new TreeSet<>();
+            for (String line : readContentsAsString(FILE).split("\n")) {
+                if (line.length() == UID_LENGTH) {
+                    boundaries.add(line);
+                }
+            }
+        }
+        return new TreeSet<>(boundaries);
+    }
+
+    /**
+     * @return 提交 ID 是否为浅克隆的边界
+     */
+    public static boolean isBoundary(String id) {
+        return FILE.isFile() && read().contains(id);
+    }
+
+    /**
+     * 记录新的边界 IDS，然后移除父提交已经存在的边界
+     */
+    public static void update(Set<String> ids) {
+        Set<String> all = read();
+        all.addAll(ids);
+        all.removeIf(Shallow::isComplete);
+        if (all.isEmpty()) {
+            FILE.delete();
+        } else {
+            writeContents(FILE, String.join("\n", all) + "\n");
+        }
+    }
+
+    /**
+     * @return 提交 ID 的所有父提交是否都在本地对象库中
+     */
+    static boolean isComplete(String id) {
+        Commit c = Methods.toCommit(id);
+        if (c == null) {
+            return true;
+        }
+        for (String p : new String[] {c.getParentAsString(), c.getSecondParentAsString()}) {
+            if (p != null && !p.isEmpty() && !Repository.getObjectFile(p).exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * 表示稀疏检出，即只把一部分文件放到工作区中
+ * <p>
+ * 模式保存在 .gitlet/sparse-checkout 中，每行一个相对于工作区的 glob 模式，
+ * 以 "#" 开头的行为注释。文件不存在时不启用稀疏检出
+ * <br>
+ * checkout、reset 和 merge 只写入匹配的文件，status 只检查匹配的已跟踪文件，
+ * 提交仍然继承父提交的完整快照，不在工作区中的文件不会被当作删除
+ *
+ * @author Kai Decker
+ */
+public class Sparse {
+
+    public static final File FILE = join(Repository.GITLET_DIR, "sparse-checkout");
+
+    /* 已经读取的模式，文件被修改后重新读取 */
+    private static List<String> patterns;
+    private static List<PathMatcher> matchers;
+    private static long lastModified = -1;
+    private static long length = -1;
+
+    /**
+     * @return 是否启用了稀疏检出
+     */
+    public static boolean isActive() {
+        return FILE.isFile();
+    }
+
+    /**
+     * @return 稀疏检出的模式，未启用时返回空列表
+     */
+    public static synchronized List<String> patterns() {
+        if (!FILE.isFile()) {
+            return new ArrayList<>();
+        }
+        if (patterns == null || lastModified != FILE.lastModified() || length != FILE.length()) {
+            lastModified = FILE.lastModified();
+            length = FILE.length();
+            patterns = new ArrayList<>();
+            matchers = new ArrayList<>();
+            for (String line : readContentsAsString(FILE).split("\n")) {
+                String p = line.trim();
+                if (!p.isEmpty() && !p.startsWith("#")) {
+                    patterns.add(p);
+                    matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + p));
+                }
+            }
+        }
+        return new ArrayList<>(patterns);
+    }
+
+    /**
+     * @return 文件 F 是否在稀疏检出的范围内，未启用稀疏检出时总是返回 true
+     */
+    public static boolean includes(File f) {
+        if (!isActive()) {
+            return true;
+        }
+        patterns();
+        Path p = Repository.CWD.toPath().relativize(f.getAbsoluteFile().toPath());
+        synchronized (Sparse.class) {
+            for (PathMatcher m : matchers) {
+                if (m.matches(p)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /* 根据文件的绝对路径判断 */
+    public static boolean includes(String path) {
+        return includes(join(path));
+    }
+
+    /**
+     * 设置稀疏检出的模式 PATTERNS，然后按新的模式更新工作区：
+     * 检出当前提交中匹配但不在工作区中的文件，删除不再匹配的已跟踪文件
+     * 如果要删除的文件有未提交的修改，则不做任何改动并退出
+     */
+    public static void set(List<String> newPatterns) {
+        Commit h = Methods.readHEADAsCommit();
+        List<PathMatcher> ms = new ArrayList<>();
+        newPatterns.forEach(p -> ms.add(FileSystems.getDefault().getPathMatcher("glob:" + p)));
+        List<File> drop = new ArrayList<>();
+        for (String path : h.getBlobs().keySet()) {
+            File f = join(path);
+            Path rel = Repository.CWD.toPath().relativize(f.toPath());
+            if (f.exists() && ms.stream().noneMatch(m -> m.matches(rel))) {
+                if (Index.isModified(f, h)) {
+                    Methods.exit("Local changes to " + f.getName()
+                            + " would be lost; commit or restore it first.");
+                }
+                drop.add(f);
+            }
+        }
+        writeContents(FILE, String.join("\n", newPatterns) + "\n");
+        drop.forEach(f -> {
+            f.delete();
+            FsMonitor.touched(f);
+        });
+        materialize(h);
+    }
+
+    /**
+     * 关闭稀疏检出，检出当前提交中所有不在工作区中的文件
+     */
+    public static void disable() {
+        FILE.delete();
+        materialize(Methods.readHEADAsCommit());
+    }
+
+    /* 检出提交 C 中在范围内但不在工作区中的文件 */
+    private static void materialize(Commit c) {
+        Index idx = Methods.readStagingArea();
+        for (String path : c.getBlobs().keySet()) {
+            File f = join(path);
+            if (!f.exists() && !idx.isRemoved(f) && includes(f)) {
+                Checkout.checkoutFile(c, f);
+            }
+        }
+    }
+}
@@ -2,14 +2,20 @@ package gitlet;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import gitlet.IndexFile.Entry;
 
 import static gitlet.Methods.readHEADAsCommit;
 import static gitlet.Methods.readStagingArea;
 import static gitlet.Utils.join;
-import static gitlet.Utils.plainFilenamesIn;
 
 /**
  * 表示 gitlet-status
@@ -19,19 +25,28 @@ import static gitlet.Utils.plainFilenamesIn;
 
 public class Status {
 
+    /* 监视器开启时，上一次 status 检查过的路径到当时内容的 blob id 的映射，见 currentBlobs */
+    private static final Map<String, String> SEEN = new HashMap<>();
+
     /**
      * 显示当前存在的所有分支，
      * 并在当前分支前用 * 标记。
      * 同时显示已暂存等待添加或删除的文件。
+     * 每一部分的文件名都按字典序排列
+     * RENAMES 为 true 时（status --renames）最后再显示检测到的重命名
      */
-    public static void printStatus() {
+    public static void printStatus(boolean renames) {
         Index idx = Methods.readStagingArea();
+        Commit h = readHEADAsCommit();
+        Scan scan = scan(idx, h, renames);
         printFilenames("=== Branches ===", getBranchesNames());
         printFilenames("\n=== Staged Files ===", idx.getAddedFilenames());
         printFilenames("\n=== Removed Files ===", idx.getRemovedFilenames());
-        printFilenames("\n=== Modifications Not Staged For Commit ===",
-                getModifiedButNotStagedFilesNames());
-        printFilenames("\n=== Untracked Files ===", getUntrackedFilesNames());
+        printFilenames("\n=== Modifications Not Staged For Commit ===", scan.modified);
+        printFilenames("\n=== Untracked Files ===", scan.untracked);
+        if (renames) {
+            printFilenames("\n=== Renamed Files ===", getRenames(h, scan.after));
+        }
         System.out.println();
     }
 
@@ -45,7 +60,7 @@ public class Status {
 
     /* 打印一个信息和文件名 */
     private static void printFilenames(String msg, Set<String> names) {
-        printFilenames(msg, new ArrayList<>(names));
+        printFilenames(msg, new ArrayList<>(new TreeSet<>(names)));
     }
 
     /**
@@ -54,11 +69,7 @@ public class Status {
      * 比如 *master
      */
     private static List<String> getBranchesNames() {
-        List<String> bs = plainFilenamesIn(Repository.BRANCHES_DIR);
-        if (bs == null) {
-            return null;
-        }
-        List<String> branches = new ArrayList<>(bs);
+        List<String> branches = Branch.names();
         String name = Methods.readHEADAsBranch().toString();
         branches.remove(name);
         branches.add(0, "*" + name);
@@ -66,7 +77,26 @@ public class Status {
 
     }
 
+    /* 一次扫描工作区得到的结果 */
+    private static class Scan {
+        /* "已修改但未暂存" 的文件名 */
+        private final Set<String> modified = new TreeSet<>();
+        /* 未跟踪的文件名 */
+        private final Set<String> untracked = new TreeSet<>();
+        /* 提交后的快照，见 getRenames，不检测重命名时不包括未跟踪的文件 */
+        private final Map<String, String> after;
+
+        Scan(Map<String, String> after) {
+            this.after = after;
+        }
+    }
+
     /**
+     * 一次扫描当前提交跟踪的文件和工作区中的文件
+     * <p>
+     * 先并行地得到每个文件当前内容的 blob id（见 {@link Index#currentBlobs}），
+     * 然后按文件名顺序分类
+     * <p>
      * 工作目录中的文件在以下情况下被视为"已修改但未暂存"：
      * <br>
      * 在当前提交中被跟踪，在工作目录中被更改，但未暂存
@@ -76,27 +106,110 @@ public class Status {
      * 已暂存等待添加，但在工作目录中被删除
      * <br>
      * 未暂存等待移除，但在当前提交中被跟踪且已从工作目录中删除
+     * <p>
+     * 稀疏检出时跳过范围外的文件
+     * <p>
+     * 只有 RENAMES 为 true 时才需要未跟踪的文件的内容，否则不计算它们的 blob id
      */
-    private static Set<String> getModifiedButNotStagedFilesNames() {
-        Index judge = readStagingArea();
-        Set<String> ret = new HashSet<>();
-        Commit h = readHEADAsCommit();
-        /* 仅对当前提交追踪的文件逐一检查 */
-        for (String filePath : h.getBlobs().keySet()) {
-            File f = join(filePath);
-            String filename = f.getName();
-            boolean exists = f.exists();
-            boolean staged = judge.isStaged(f);
-            boolean removed = judge.isRemoved(f);
-            boolean tracked = judge.isTracked(f, h);
-            boolean modified = Index.isModified(f, h);
-            if (!exists && (staged || (!removed && tracked))) {
-                ret.add(filename + " (deleted)");
-            } else if (exists && modified && (tracked || staged)) {
-                ret.add(filename + " (modified)");
+    private static Scan scan(Index idx, Commit h, boolean renames) {
+        Map<String, Entry> entries = new HashMap<>();
+        idx.entries().forEach(e -> entries.put(e.path, e));
+        Map<String, String> head = h.getBlobs();
+        Set<String> paths = new TreeSet<>();
+        head.keySet().stream().filter(p -> Sparse.includes(new File(p))).forEach(paths::add);
+        Set<String> working = new HashSet<>();
+        List<String> files = FsMonitor.workingFiles();
+        if (files != null) {
+            files.forEach(n -> working.add(join(Repository.CWD, n).getAbsolutePath()));
+        }
+        paths.addAll(working);
+
+        /* 存在的文件的路径到当前内容的 blob id 的映射 */
+        Map<String, String> current = currentBlobs(renames ? paths
+                : paths.stream().filter(p -> head.containsKey(p) || entries.containsKey(p))
+                        .collect(Collectors.toList()), entries);
+
+        Scan ret = new Scan(new HashMap<>(head));
+        for (Entry e : entries.values()) {
+            if (e.has(IndexFile.REMOVED)) {
+                ret.after.remove(e.path);
+            }
+        }
+        for (String p : paths) {
+            File f = new File(p);
+            Entry e = entries.get(p);
+            String blob = current.get(p);
+            String headBlob = head.get(p);
+            if (headBlob != null && Sparse.includes(f)) {
+                boolean staged = e != null && e.has(IndexFile.ADDED);
+                boolean removed = e != null && e.has(IndexFile.REMOVED);
+                if (blob == null) {
+                    ret.after.remove(p);
+                    if (staged || !removed) {
+                        ret.modified.add(f.getName() + " (deleted)");
+                    }
+                } else if (!blob.equals(headBlob)) {
+                    ret.modified.add(f.getName() + " (modified)");
+                }
+            } else if (headBlob == null && working.contains(p)
+                    && (e == null || !e.has(IndexFile.TRACKED))) {
+                ret.untracked.add(f.getName());
+                if (blob != null) {
+                    ret.after.put(p, blob);
+                }
             }
+        }
+        for (Entry e : entries.values()) {
+            if (e.has(IndexFile.ADDED)) {
+                ret.after.put(e.path, e.blob);
+            }
+        }
+        return ret;
+    }
 
+    /**
+     * 计算 PATHS 中每个存在的文件当前内容的 blob id，见 {@link Index#currentBlobs}
+     * 监视器开启时，上一次 status 检查过并且监视器没有报告变化的工作区文件直接使用上一次的结果，
+     * 只有发生变化的文件和之前没有检查过的路径需要检查
+     */
+    private static Map<String, String> currentBlobs(Collection<String> paths,
+                                                    Map<String, Entry> entries) {
+        Set<String> changed = FsMonitor.takeChanged();
+        if (changed == null) {
+            SEEN.clear();
+        }
+        Map<String, String> ret = new HashMap<>();
+        List<String> lookup = new ArrayList<>();
+        for (String p : paths) {
+            File f = new File(p);
+            if (changed != null && SEEN.containsKey(p) && !changed.contains(f.getName())
+                    && Repository.CWD.equals(f.getParentFile())) {
+                if (SEEN.get(p) != null) {
+                    ret.put(p, SEEN.get(p));
+                }
+            } else {
+                lookup.add(p);
+            }
         }
+        Map<String, String> found = Index.currentBlobs(lookup, entries);
+        ret.putAll(found);
+        if (FsMonitor.isActive()) {
+            /* 不存在的文件记为 null */
+            lookup.forEach(p -> SEEN.put(p, found.get(p)));
+        }
+        return ret;
+    }
+
+    /**
+     * 检测当前提交到 "提交后的快照" AFTER 之间的重命名，
+     * 后者包括暂存的改动以及工作区中的删除和未跟踪的文件
+     * 和 git status 一样不检测复制
+     *
+     * @return 形如 "a.txt -> b.txt (90%)" 的描述
+     */
+    private static List<String> getRenames(Commit h, Map<String, String> after) {
+        List<String> ret = new ArrayList<>();
+        Renames.detect(h.getBlobs(), after, false).forEach(p -> ret.add(p.toString()));
         return ret;
     }
 
@@ -107,9 +220,9 @@ public class Status {
      * @return 未跟踪的文件名集合，如果模式不正确则返回空集合
      */
     public static Set<String> getUntrackedFilesNames() {
-        Set<String> ret = new HashSet<>();
+        Set<String> ret = new TreeSet<>();
         Commit currentCommit = Methods.readHEADAsCommit();
-        List<String> files = plainFilenamesIn(Repository.CWD);
+        List<String> files = FsMonitor.workingFiles();
         if (files == null) {
             return ret;
         }
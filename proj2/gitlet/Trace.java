@@ -0,0 +1,158 @@
+package gitlet;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 可选的命令追踪，用于分析一条命令的耗时分布
+ * 通过环境变量 GITLET_TRACE=1 或者在命令前加上 --trace 开启
+ * 命令结束（包括通过 Methods.exit 提前退出）时，
+ * 向标准错误输出一行 JSON，包含各阶段的耗时和 I/O 计数，以及命令是否由后台进程执行
+ * <p>
+ * 统计的阶段：
+ * <br>hash  : Utils.sha1 的调用次数、哈希的字节数和耗时
+ * <br>read  : Utils.readObject 反序列化的对象数、字节数和耗时
+ * <br>write : Utils.writeContents 写入的文件数、字节数和耗时
+ * <br>list  : Utils.plainFilenamesIn 列出的目录数、检查的文件数和耗时
+ *
+ * @author Kai Decker
+ */
+public class Trace {
+
+    /* 开启追踪的命令行参数 */
+    public static final String FLAG = "--trace";
+
+    /* 是否开启追踪 */
+    private static volatile boolean enabled;
+
+    /* 当前命令名 */
+    private static String command;
+
+    /* 命令开始的时间 */
+    private static long start;
+
+    private static final Phase HASH = new Phase("hash");
+    private static final Phase READ = new Phase("read");
+    private static final Phase WRITE = new Phase("write");
+    private static final Phase LIST = new Phase("list");
+
+    /**
+     * 根据环境变量和命令行参数决定是否开启追踪
+     *
+     * @return 去掉 --trace 之后的命令行参数
+     */
+    public static String[] start(String[] args) {
+        return start(args, System.getenv("GITLET_TRACE"));
+    }
+
+    /**
+     * 同上，ENV 为 GITLET_TRACE 的值，后台进程中使用客户端传来的值
+     */
+    static String[] start(String[] args, String env) {
+        boolean flag = args.length > 0 && args[0].equals(FLAG);
+        if (flag) {
+            String[] rest = new String[args.length - 1];
+            System.arraycopy(args, 1, rest, 0, rest.length);
+            args = rest;
+        }
+        if (flag || (env != null && !env.isEmpty() && !env.equals("0"))) {
+            enabled = true;
+            command = args.length > 0 ? args[0] : "";
+            start = System.nanoTime();
+            if (!Daemon.isRunning()) {
+                /* 无论正常结束还是 System.exit 都会输出 */
+                Runtime.getRuntime().addShutdownHook(new Thread(Trace::finish));
+            }
+        }
+        return args;
+    }
+
+    /**
+     * 结束当前命令的追踪并输出结果，之后清空计数
+     * 用于后台进程中一个进程执行多条命令的情况
+     */
+    static void stop() {
+        if (!enabled) {
+            return;
+        }
+        finish();
+        enabled = false;
+        for (Phase p : new Phase[] {HASH, READ, WRITE, LIST}) {
+            p.reset();
+        }
+    }
+
+    /**
+     * @return 当前时间，未开启追踪时返回 0 以避免多余的系统调用
+     */
+    static long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /* 记录一次哈希 BYTES 字节的 sha1 计算 */
+    static void hashed(long begin, long bytes) {
+        HASH.add(begin, 1, bytes);
+    }
+
+    /* 记录一次读取 BYTES 字节的对象反序列化 */
+    static void objectRead(long begin, long bytes) {
+        READ.add(begin, 1, bytes);
+    }
+
+    /* 记录一次写入 BYTES 字节的文件写入 */
+    static void written(long begin, long bytes) {
+        WRITE.add(begin, 1, bytes);
+    }
+
+    /* 记录一次检查了 FILES 个文件的目录列出 */
+    static void listed(long begin, long files) {
+        LIST.add(begin, 1, files);
+    }
+
+    /* 输出一行 JSON 格式的统计结果 */
+    private static void finish() {
+        double total = (System.nanoTime() - start) / 1e6;
+        String json = "{\"command\":\"" + command.replace("\"", "\\\"") + "\""
+                + String.format(Locale.ROOT, ",\"totalMs\":%.3f", total)
+                + ",\"daemon\":" + Daemon.isRunning()
+                + ",\"phases\":{"
+                + HASH.toJson("bytes") + ","
+                + READ.toJson("bytes") + ","
+                + WRITE.toJson("bytes") + ","
+                + LIST.toJson("files")
+                + "}}";
+        System.err.println(json);
+    }
+
+    /** 一个阶段的计数器，可以被多个线程同时更新 */
+    private static class Phase {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder amount = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        void add(long begin, long n, long size) {
+            if (!enabled) {
+                return;
+            }
+            nanos.add(System.nanoTime() - begin);
+            count.add(n);
+            amount.add(size);
+        }
+
+        void reset() {
+            count.reset();
+            amount.reset();
+            nanos.reset();
+        }
+
+        String toJson(String unit) {
+            return String.format(Locale.ROOT, "\"%s\":{\"count\":%d,\"%s\":%d,\"ms\":%.3f}",
+                    name, count.sum(), unit, amount.sum(), nanos.sum() / 1e6);
+        }
+    }
+}
@@ -36,13 +36,18 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long begin = Trace.begin();
+        long bytes = 0;
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    bytes += ((byte[]) val).length;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] b = ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(b);
+                    bytes += b.length;
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
@@ -51,6 +56,7 @@ class Utils {
             for (byte b : md.digest()) {
                 result.format("%02x", b);
             }
+            Trace.hashed(begin, bytes);
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
@@ -73,6 +79,7 @@ class Utils {
         if (!(new File(file.getParentFile(), ".gitlet")).isDirectory()) {
             throw new IllegalArgumentException("not .gitlet working directory");
         }
+        FsMonitor.touched(file);
         if (!file.isDirectory()) {
             return file.delete();
         } else {
@@ -121,16 +128,21 @@ class Utils {
                 throw
                     new IllegalArgumentException("cannot overwrite directory");
             }
+            long begin = Trace.begin();
+            long bytes = 0;
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] b = obj instanceof byte[]
+                    ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(b);
+                bytes += b.length;
             }
             str.close();
+            Trace.written(begin, bytes);
+            FsMonitor.touched(file);
+            Daemon.written(file);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -141,10 +153,12 @@ class Utils {
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
+            long begin = Trace.begin();
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Trace.objectRead(begin, file.length());
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -172,10 +186,12 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        long begin = Trace.begin();
         String[] files = dir.list(PLAIN_FILES);
         if (files == null) {
             return null;
         } else {
+            Trace.listed(begin, files.length);
             Arrays.sort(files);
             return Arrays.asList(files);
         }
@@ -0,0 +1,205 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * 附加的工作区，所有工作区共享同一个对象库和同一组分支
+ * <p>
+ * 每个附加的工作区在共享的 .gitlet/worktrees/[名字] 中有自己的目录，保存：
+ * <br>  HEAD 和 index：这个工作区的当前分支和暂存区
+ * <br>  commondir：共享的 .gitlet 目录的路径
+ * <br>  gitdir：工作区的根目录
+ * <br>
+ * 工作区根目录中的 .gitlet 是一个文件，记录上面这个目录的路径，
+ * 所以在工作区中运行的命令会使用自己的 HEAD 和暂存区（见 Repository）
+ * <p>
+ * 提交的快照映射以绝对路径为 KEY，对象库中统一保存主工作区中的路径，
+ * 在附加的工作区中读写提交时把路径前缀换成这个工作区的根目录
+ * <br>
+ * 同一个分支同时只能在一个工作区中检出
+ *
+ * @author Kai Decker
+ */
+public class Worktree {
+
+    /* 附加的工作区的目录 */
+    private static final File DIR = join(COMMON_DIR, "worktrees");
+
+    /* 主工作区和当前工作区的根目录 */
+    private static final String COMMON_ROOT = COMMON_DIR.getParentFile().getAbsolutePath();
+    private static final String ROOT = CWD.getAbsolutePath();
+
+    /**
+     * 在目录 DIR 创建一个新的工作区并检出分支 BRANCH
+     */
+    public static void add(File dir, Branch branch) {
+        String[] existing = dir.list();
+        if (dir.exists() && (existing == null || existing.length > 0)) {
+            Methods.exit("Destination path already exists.");
+        }
+        if (checkedOutAt(branch.getName()) != null) {
+            Methods.exit("That branch is already checked out in another worktree.");
+        }
+        String root = dir.toPath().toAbsolutePath().normalize().toString();
+        String name = dir.getName();
+        File admin = join(DIR, name);
+        for (int i = 1; admin.exists(); i++) {
+            admin = join(DIR, name + i);
+        }
+        admin.mkdirs();
+        dir.mkdirs();
+        writeContents(join(admin, "commondir"), COMMON_DIR.getAbsolutePath());
+        writeContents(join(admin, "gitdir"), root);
+        writeObject(join(admin, "HEAD"), branch);
+        IndexFile.write(join(admin, "index"), new TreeMap<>());
+        writeContents(join(dir, ".gitlet"), admin.getAbsolutePath());
+
+        /* 检出分支的文件，路径换成新工作区中的路径 */
+        Commit c = branch.getHEADAsCommit();
+        c.getBlobs().forEach((path, blob) -> {
+            File f = new File(rebase(rebase(path, ROOT, COMMON_ROOT), COMMON_ROOT, root));
+            f.getParentFile().mkdirs();
+            Methods.toBlob(blob).writeTo(f);
+        });
+    }
+
+    /**
+     * 打印所有工作区，格式为 "[根目录] [提交 id 前 8 位] [[分支名]]"
+     * 根目录已经不存在的工作区后面标记 (missing)
+     */
+    public static void list() {
+        for (Tree t : all()) {
+            Branch b = t.head();
+            String head = b.getHEADAsString();
+            System.out.printf("%s %s [%s]%s%n", t.root,
+                    head.isEmpty() ? "00000000" : head.substring(0, 8), b.getName(),
+                    t.exists() ? "" : " (missing)");
+        }
+    }
+
+    /**
+     * @return 检出了分支 NAME 的工作区的根目录，没有时返回 null
+     */
+    public static String checkedOutAt(String name) {
+        for (Tree t : all()) {
+            if (t.exists() && t.head().getName().equals(name)) {
+                return t.root;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 分支 NAME 是否在其他工作区中检出
+     */
+    public static boolean isCheckedOutElsewhere(String name) {
+        String root = checkedOutAt(name);
+        return root != null && !root.equals(ROOT);
+    }
+
+    /**
+     * @return 所有工作区（包括主工作区）的 HEAD 指向的提交 uid
+     */
+    public static List<String> heads() {
+        List<String> ret = new ArrayList<>();
+        for (Tree t : all()) {
+            ret.add(t.head().getHEADAsString());
+        }
+        return ret;
+    }
+
+    /**
+     * @return 所有工作区（包括主工作区）暂存待添加的 blob id
+     */
+    public static List<String> stagedBlobs() {
+        List<String> ret = new ArrayList<>();
+        for (Tree t : all()) {
+            File index = join(t.dir, "index");
+            if (IndexFile.isBinary(index)) {
+                IndexFile.open(index).entries().stream().filter(e -> e.has(IndexFile.ADDED))
+                        .forEach(e -> ret.add(e.blob));
+            }
+        }
+        return ret;
+    }
+
+    /* 一个工作区 */
+    private static class Tree {
+        /* 工作区的根目录 */
+        private final String root;
+        /* 保存 HEAD 和暂存区的 .gitlet 目录 */
+        private final File dir;
+
+        Tree(String root, File dir) {
+            this.root = root;
+            this.dir = dir;
+        }
+
+        Branch head() {
+            return readObject(join(dir, "HEAD"), Branch.class);
+        }
+
+        /* 根目录被删除的工作区不再有效 */
+        boolean exists() {
+            return join(root, ".gitlet").exists();
+        }
+    }
+
+    /* 所有工作区，主工作区在最前 */
+    private static List<Tree> all() {
+        List<Tree> ret = new ArrayList<>();
+        ret.add(new Tree(COMMON_ROOT, COMMON_DIR));
+        String[] names = DIR.list();
+        if (names == null) {
+            return ret;
+        }
+        Arrays.sort(names);
+        for (String n : names) {
+            File gitdir = join(DIR, n, "gitdir");
+            if (gitdir.isFile()) {
+                ret.add(new Tree(readContentsAsString(gitdir).trim(), join(DIR, n)));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return 快照映射 BLOBS 中的路径从当前工作区换成主工作区中的路径
+     */
+    static HashMap<String, String> toCommon(HashMap<String, String> blobs) {
+        return rebase(blobs, ROOT, COMMON_ROOT);
+    }
+
+    /**
+     * @return 快照映射 BLOBS 中的路径从主工作区换成当前工作区中的路径
+     */
+    static HashMap<String, String> fromCommon(HashMap<String, String> blobs) {
+        return rebase(blobs, COMMON_ROOT, ROOT);
+    }
+
+    private static HashMap<String, String> rebase(HashMap<String, String> blobs,
+                                                  String from, String to) {
+        if (blobs == null || from.equals(to)) {
+            return blobs;
+        }
+        HashMap<String, String> ret = new HashMap<>();
+        blobs.forEach((path, blob) -> ret.put(rebase(path, from, to), blob));
+        return ret;
+    }
+
+    /* 把 FROM 目录中的路径 PATH 换成 TO 目录中的路径，其他路径不变 */
+    private static String rebase(String path, String from, String to) {
+        if (path.startsWith(from + File.separator)) {
+            return to + path.substring(from.length());
+        }
+        return path;
+    }
+}